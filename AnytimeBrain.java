@@ -0,0 +1,242 @@
+/**
+ A LameBrain that searches as deep as a deadline allows.
+
+ bestMove() first ranks the plays of the current piece on its own,
+ as LameBrain does. If the deadline passes during this round, it stops
+ as soon as at least one play has been rated and returns the best play
+ rated so far, so there is always a move. Then, while there is time,
+ it searches one piece deeper into
+ the preview each round (iterative deepening): depth 2 tries every play
+ of the next piece after each play of the current one, and so on. Each
+ round tries the plays of the current piece in the order the previous
+ round ranked them. When the deadline passes, the unfinished round is
+ dropped and the best play of the deepest finished round is returned.
+
+ Interrupting the thread stops the search as the deadline does.
+ All the search happens on the board passed in, with mark()/rollbackTo()
+ and place()/undo(). getDepth() and getNodes() report on the last
+ search.
+*/
+public class AnytimeBrain extends LameBrain {
+    private static final int CHECK_EVERY = 8;	// nodes between clock reads
+
+    private volatile long timeLimit = 50;	// milliseconds for bestMove()
+    private int maxDepth = Integer.MAX_VALUE;
+
+    private MoveBuffer ranked = new MoveBuffer(64), reranked = new MoveBuffer(64);
+    private Piece[] queue = new Piece[0];
+    private PlacementTable.Walk[] walks = new PlacementTable.Walk[0];	// one per level
+    private long deadline;
+    private boolean timedOut;
+    private long nodes;
+    private int depth;
+
+
+    public AnytimeBrain() {
+    }
+
+    public AnytimeBrain(BoardEvaluator evaluator) {
+        super(evaluator);
+    }
+
+
+    /**
+       Sets the time bestMove() may take without an explicit deadline,
+       in milliseconds.
+    */
+    public void setTimeLimit(long millis) {
+        timeLimit = millis;
+    }
+
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+
+
+    /**
+       Sets the deepest search, counting the current piece as 1.
+    */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 1)
+            throw new RuntimeException("Max depth must be at least 1");
+        this.maxDepth = maxDepth;
+    }
+
+
+    /**
+       Returns the depth of the deepest round the last search finished,
+       or 0 if the deadline passed before every play of the current
+       piece was rated.
+    */
+    public int getDepth() {
+        return depth;
+    }
+
+
+    /**
+       Returns the number of boards the last search rated or played
+       through, including those of an unfinished round.
+    */
+    public long getNodes() {
+        return nodes;
+    }
+
+
+    /**
+       Without a preview, only the current piece is ranked, still
+       within the time limit set by setTimeLimit().
+    */
+    public Brain.Move bestMove(Board board,
+                               Piece piece,
+                               int limitHeight,
+                               Brain.Move move) {
+        return bestMove(board, piece, null, limitHeight, move);
+    }
+
+
+    /**
+       Searches with the time limit set by setTimeLimit().
+    */
+    public Brain.Move bestMove(Board board,
+                               Piece piece,
+                               Piece[] preview,
+                               int limitHeight,
+                               Brain.Move move) {
+        return bestMove(board, piece, preview, limitHeight, move,
+                        System.nanoTime() + timeLimit * 1000000L);
+    }
+
+
+    /**
+       Given a piece, the preview of the pieces after it and a board,
+       returns the best play for the piece found by the deadline (a
+       System.nanoTime() value), or null if no play is possible.
+    */
+    public Brain.Move bestMove(Board board,
+                               Piece piece,
+                               Piece[] preview,
+                               int limitHeight,
+                               Brain.Move move,
+                               long deadline) {
+        this.deadline = deadline;
+        timedOut = false;
+        nodes = 0;
+        depth = 0;
+
+        int levels = 1;
+        if (preview != null)
+            while (levels <= preview.length && preview[levels - 1] != null)
+                levels++;
+        levels = Math.min(levels, maxDepth);
+        if (queue.length < levels)
+            queue = new Piece[levels];
+        queue[0] = piece;
+        for (int i = 1; i < levels; i++)
+            queue[i] = preview[i - 1];
+        if (walks.length < levels) {
+            PlacementTable.Walk[] more = new PlacementTable.Walk[levels];
+            System.arraycopy(walks, 0, more, 0, walks.length);
+            for (int i = walks.length; i < levels; i++)
+                more[i] = new PlacementTable.Walk();
+            walks = more;
+        }
+
+        // depth 1 stops early only once it has a play
+        int count = PlacementTable.forPiece(piece, board.getWidth()).size();
+        if (ranked.capacity() < count) {
+            ranked = new MoveBuffer(count);
+            reranked = new MoveBuffer(count);
+        }
+        count = rankPlays(board, piece, limitHeight);
+        if (count == 0)
+            return(null);	// could not find a play at all!
+        if (!timedOut)
+            depth = 1;
+
+        // deepen while there is time
+        for (int d = 2; d <= levels && !timedOut; d++) {
+            reranked.reset(count);
+            for (int i = 0; i < count && !timedOut; i++) {
+                int mark = board.mark();
+                if (board.place(ranked.getPiece(i), ranked.getX(i), ranked.getY(i)) == Board.PLACE_ROW_FILLED)
+                    board.clearRows();
+                double score = search(board, 1, d, limitHeight);
+                board.rollbackTo(mark);
+                reranked.offer(ranked.getPiece(i), ranked.getX(i), ranked.getY(i), score);
+            }
+            if (!timedOut) {
+                MoveBuffer swap = ranked;
+                ranked = reranked;
+                reranked = swap;
+                depth = d;
+            }
+        }
+
+        if (move==null) move = new Brain.Move();
+        return ranked.get(0, move);
+    }
+
+    // Rates the plays of the piece into ranked, best first, in the order
+    // LameBrain tries them, and returns how many there are. Gives up when
+    // the deadline passes, but not before one play has been rated.
+    private int rankPlays(Board board, Piece piece, int limitHeight) {
+        ranked.reset(ranked.capacity());
+        final PlacementTable.Walk walk = walks[0];
+        walk.begin(board, piece, limitHeight);
+        while (walk.next()) {
+            // one clock read per play is small next to rating a board
+            nodes++;
+            if (ranked.size() > 0 && expired()) {
+                timedOut = true;
+                break;
+            }
+
+            if (walk.play())
+                ranked.offer(walk.getPiece(), walk.getX(), walk.getY(), evaluator.rateBoard(board));
+            board.undo();
+        }
+        return ranked.size();
+    }
+
+    // True once the deadline has passed or the thread was interrupted.
+    private boolean expired() {
+        return System.nanoTime() - deadline > 0 || Thread.currentThread().isInterrupted();
+    }
+
+    // Returns the best score reachable by playing the pieces of the
+    // queue from level to depth-1, or a score worse than any real board
+    // if one of them cannot be played. Gives up when the deadline passes.
+    private double search(Board board, int level, int depth, int limitHeight) {
+        final PlacementTable.Walk walk = walks[level];
+        final boolean leaf = (level == depth - 1);
+        double best = 1e19;
+        walk.begin(board, queue[level], limitHeight);
+        while (walk.next()) {
+            if (++nodes % CHECK_EVERY == 0 && expired())
+                timedOut = true;
+            if (timedOut)
+                return best;
+
+            double score;
+            if (leaf) {
+                if (!walk.play()) {
+                    board.undo();
+                    continue;
+                }
+                score = evaluator.rateBoard(board);
+                board.undo();
+            } else {
+                int mark = board.mark();
+                if (!walk.play()) {
+                    board.rollbackTo(mark);
+                    continue;
+                }
+                score = search(board, level + 1, depth, limitHeight);
+                board.rollbackTo(mark);
+            }
+            if (score<best)
+                best = score;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ A LameBrain that searches several pieces ahead with a beam search.
+
+ Starting from the board, each level plays the next piece of the queue
+ (the current piece, then the preview) every way on every board of the
+ beam, rates the results with rateBoard(), and keeps the best "width"
+ of them as the beam for the next level. After "depth" levels, or when
+ the preview runs out, it returns the play of the current piece that
+ led to the best board.
+
+ Memory is bounded by the width: the beam boards come from two pools
+ of width boards each that are refilled with copyFrom() level after
+ level, and candidates are ranked in reused primitive arrays before
+ any board is copied. Width and depth may be changed between moves,
+ i.e. from a speed control, to trade time for play. If the thread is
+ interrupted, the search stops after the level it is on.
+*/
+public class BeamSearchBrain extends LameBrain {
+    private volatile int width = 8;
+    private volatile int depth = 2;
+
+    private Board[] poolA = new Board[0], poolB = new Board[0];
+    private final PlacementTable.Walk walk = new PlacementTable.Walk();
+
+    // the beam: a score and the first play that led to each board
+    private double[] beamScores = new double[0];
+    private Piece[] beamPieces = new Piece[0];
+    private int[] beamXs = new int[0], beamYs = new int[0];
+    private int beamCount;
+
+    // the best candidates of one level, best first
+    private double[] candScores = new double[0];
+    private int[] candEntries = new int[0], candPlacements = new int[0], candYs = new int[0];
+    private int candCount;
+
+
+    public BeamSearchBrain() {
+    }
+
+    public BeamSearchBrain(BoardEvaluator evaluator) {
+        super(evaluator);
+    }
+
+
+    /**
+       Sets how many boards are kept at each level of the search.
+    */
+    public void setWidth(int width) {
+        if (width < 1)
+            throw new RuntimeException("Beam width must be at least 1");
+        this.width = width;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+
+    /**
+       Sets how many pieces deep to search, counting the current piece.
+       The search also stops at the end of the preview.
+    */
+    public void setDepth(int depth) {
+        if (depth < 1)
+            throw new RuntimeException("Beam depth must be at least 1");
+        this.depth = depth;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+
+    /**
+       Without a preview, the search is one piece deep and picks the
+       same play as LameBrain.
+    */
+    public Brain.Move bestMove(Board board,
+                               Piece piece,
+                               int limitHeight,
+                               Brain.Move move) {
+        return bestMove(board, piece, new Piece[0], limitHeight, move);
+    }
+
+
+    /**
+       Given a piece, the preview of the pieces after it and a board,
+       returns the play of the piece that leads to the best board found
+       by the beam search, or null if no play is possible.
+    */
+    public Brain.Move bestMove(Board board,
+                               Piece piece,
+                               Piece[] preview,
+                               int limitHeight,
+                               Brain.Move move) {
+        final int k = width;
+        int levels = depth;
+        for (int i = 0; i < levels - 1; i++) {
+            if (preview == null || i >= preview.length || preview[i] == null) {
+                levels = i + 1;
+                break;
+            }
+        }
+        ensureCapacity(board, k);
+
+        Board[] current = null;	// null means the beam is just the board
+        beamCount = 1;
+        for (int level = 0; level < levels; level++) {
+            Piece next = (level == 0) ? piece : preview[level - 1];
+            PlacementTable table = PlacementTable.forPiece(next, board.getWidth());
+
+            // rank every play on every board of the beam
+            if (level > 0 && Thread.currentThread().isInterrupted())
+                break;	// asked to stop -- keep the beam so far
+            candCount = 0;
+            for (int e = 0; e < beamCount; e++)
+                rankPlays((current == null) ? board : current[e], e, next, limitHeight, k);
+            if (candCount == 0)
+                break;	// the beam so far is as deep as we can go
+
+            // copy the best into the other pool to make the next beam
+            Board[] into = (current == poolA) ? poolB : poolA;
+            for (int c = 0; c < candCount; c++) {
+                int e = candEntries[c];
+                int i = candPlacements[c];
+                if (level < levels - 1) {
+                    into[c].copyFrom((current == null) ? board : current[e]);
+                    if (into[c].place(table.getPiece(i), table.getX(i), candYs[c]) == Board.PLACE_ROW_FILLED)
+                        into[c].clearRows();
+                    into[c].commit();
+                }
+                if (level == 0) {
+                    beamPieces[c] = table.getPiece(i);
+                    beamXs[c] = table.getX(i);
+                    beamYs[c] = candYs[c];
+                } else {
+                    beamPieces[k + c] = beamPieces[e];
+                    beamXs[k + c] = beamXs[e];
+                    beamYs[k + c] = beamYs[e];
+                }
+                beamScores[c] = candScores[c];
+            }
+            if (level > 0) {	// the first plays were staged above k
+                System.arraycopy(beamPieces, k, beamPieces, 0, candCount);
+                System.arraycopy(beamXs, k, beamXs, 0, candCount);
+                System.arraycopy(beamYs, k, beamYs, 0, candCount);
+            }
+            beamCount = candCount;
+            current = into;
+        }
+
+        if (current == null)
+            return(null);	// could not find a play at all!
+        if (move==null) move = new Brain.Move();
+        move.piece = beamPieces[0];
+        move.x = beamXs[0];
+        move.y = beamYs[0];
+        move.score = beamScores[0];
+        return(move);
+    }
+
+    // Plays the piece every way on the board and adds each result to
+    // the candidate list, which keeps the best k. Leaves the board as
+    // it was.
+    private void rankPlays(Board board, int entry, Piece piece, int limitHeight, int k) {
+        walk.begin(board, piece, limitHeight);
+        while (walk.next()) {
+            if (walk.play())
+                addCandidate(evaluator.rateBoard(board), entry, walk.getIndex(), walk.getY(), k);
+            board.undo();
+        }
+    }
+
+    // Inserts a candidate into the best-first list of at most k,
+    // after any candidate with the same score.
+    private void addCandidate(double score, int entry, int placement, int y, int k) {
+        int at = candCount;
+        while (at > 0 && score < candScores[at - 1])
+            at--;
+        if (at >= k)
+            return;
+        for (int j = Math.min(candCount, k - 1); j > at; j--) {
+            candScores[j] = candScores[j - 1];
+            candEntries[j] = candEntries[j - 1];
+            candPlacements[j] = candPlacements[j - 1];
+            candYs[j] = candYs[j - 1];
+        }
+        candScores[at] = score;
+        candEntries[at] = entry;
+        candPlacements[at] = placement;
+        candYs[at] = y;
+        if (candCount < k)
+            candCount++;
+    }
+
+    // Grows the pools and arrays to hold a beam of k boards like board.
+    private void ensureCapacity(Board board, int k) {
+        if (candScores.length < k) {
+            candScores = new double[k];
+            candEntries = new int[k];
+            candPlacements = new int[k];
+            candYs = new int[k];
+            beamScores = new double[k];
+            beamPieces = new Piece[2 * k];
+            beamXs = new int[2 * k];
+            beamYs = new int[2 * k];
+        }
+        poolA = fillPool(poolA, board, k);
+        poolB = fillPool(poolB, board, k);
+    }
+
+    private Board[] fillPool(Board[] pool, Board board, int k) {
+        if (pool.length < k) {
+            Board[] more = new Board[k];
+            System.arraycopy(pool, 0, more, 0, pool.length);
+            pool = more;
+        }
+        for (int i = 0; i < k; i++) {
+            if (pool[i] == null || pool[i].getClass() != board.getClass()
+                || pool[i].getWidth() != board.getWidth()
+                || pool[i].getHeight() != board.getHeight())
+                pool[i] = createBoard(board);
+        }
+        return pool;
+    }
+
+
+    /**
+       Returns a new board for the beam pools, by default
+       board.newBoard().
+    */
+    protected Board createBoard(Board board) {
+        return board.newBoard();
+    }
+}
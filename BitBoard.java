@@ -0,0 +1,426 @@
+import java.util.*;
+
+
+/**
+   A Board that stores each row of the grid as a single int bitmask
+   (bit x set means block (x, y) is filled). A full-row check is then a
+   single compare against the full mask, and a row width is an
+   Integer.bitCount(), instead of a walk across every column.
+
+   Behaves exactly like TetrisBoard and can be used anywhere a Board
+   is expected. Boards are limited to 32 columns.
+*/
+public class BitBoard implements Board {
+    private static final boolean DEBUG = true;
+    public static final int MAX_WIDTH = 32;
+
+    private int[] rows, backupRows;
+    private int[] columnHeights, backupColumnHeights;
+    private int maxHeight, backupMaxHeight;
+    private int width, height;
+    private int fullRow;
+    private long[] columnKeys, rowKeys;
+    private boolean primed = false;
+
+    // Zobrist hashing (see Zobrist): the content key of each row and
+    // the running hash of the whole board, kept up to date with the
+    // rows and saved with them for undo() and rollbackTo().
+    private long[] rowContent, backupRowContent;
+    private long hash, backupHash;
+    private int primeDepth = 0;
+
+    // mark() checkpoints, a stack of saved rows/heights. The arrays
+    // are kept and reused, so a search does not allocate once the
+    // stack has reached its deepest level.
+    private int[][] markRows = new int[0][];
+    private int[][] markHeights = new int[0][];
+    private int[] markMaxHeights = new int[0];
+    private long[][] markContent = new long[0][];
+    private long[] markHashes = new long[0];
+    private int markCount = 0;
+
+
+    /**
+       Creates an empty board of the given width and height
+       measured in blocks.
+    */
+    public BitBoard(int width, int height) {
+        if (width > MAX_WIDTH)
+            throw new RuntimeException("BitBoard width must be at most " + MAX_WIDTH);
+        this.width = width;
+        this.height = height;
+        fullRow = (width == MAX_WIDTH) ? -1 : (1 << width) - 1;
+        rows = new int[height];
+        backupRows = new int[height];
+        columnHeights = new int[width];
+        backupColumnHeights = new int[width];
+        columnKeys = Zobrist.columnKeys(width);
+        rowKeys = Zobrist.rowKeys(height);
+        rowContent = new long[height];
+        backupRowContent = new long[height];
+    }
+
+
+    /**
+       Returns the width of the board in blocks.
+    */
+    public int getWidth() {
+        return width;
+    }
+
+
+    /**
+       Returns the height of the board in blocks.
+    */
+    public int getHeight() {
+        return height;
+    }
+
+
+    /**
+       Returns the max column height present in the board.
+       For an empty board this is 0.
+    */
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+
+    /**
+       Checks the board for internal consistency -- used
+       for debugging.
+    */
+    public void sanityCheck() {
+        if (DEBUG) {
+            int mh = 0;
+            for (int x = 0; x < width; x++) {
+                int h = 0;
+                for (int y = height - 1; y >= 0; y--) {
+                    if ((rows[y] & (1 << x)) != 0) {
+                        h = y + 1;
+                        break;
+                    }
+                }
+                if (h != columnHeights[x])
+                    throw new RuntimeException("Bad column height at x=" + x);
+                if (mh < h)
+                    mh = h;
+            }
+            if (mh != maxHeight)
+                throw new RuntimeException("Bad max height");
+        }
+    }
+
+
+    /**
+       Fills out[x] with dropHeight(piece, x) for every x where the
+       piece fits across the board, and returns how many that is.
+       One pass over the skirt, reading the column heights directly.
+    */
+    public int dropHeights(Piece piece, int[] out) {
+        int[] skirt = piece.getSkirt();
+        int n = width - skirt.length + 1;
+        if (n <= 0)
+            return 0;
+        for (int x = 0; x < n; x++)
+            out[x] = Math.max(0, columnHeights[x] - skirt[0]);
+        for (int ix = 1; ix < skirt.length; ix++) {
+            int s = skirt[ix];
+            for (int x = 0; x < n; x++) {
+                int local = columnHeights[x + ix] - s;
+                if (out[x] < local)
+                    out[x] = local;
+            }
+        }
+        return n;
+    }
+
+
+    /**
+       Returns the height of the given column --
+       i.e. the y value of the highest block + 1.
+       The height is 0 if the column contains no blocks.
+    */
+    public int getColumnHeight(int x) {
+        return columnHeights[x];
+    }
+
+
+    /**
+       Returns the number of filled blocks in
+       the given row.
+    */
+    public int getRowWidth(int y) {
+        return Integer.bitCount(rows[y]);
+    }
+
+
+    /**
+       Returns true if the given block is filled in the board.
+       Blocks outside of the valid width/height area
+       always return true.
+    */
+    public final boolean getGrid(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return true;
+        return (rows[y] & (1 << x)) != 0;
+    }
+
+
+    public void copyColumnHeights(int[] out) {
+        System.arraycopy(columnHeights, 0, out, 0, width);
+    }
+
+
+    public int copyRowWidths(int[] out) {
+        for (int y = 0; y < maxHeight; y++)
+            out[y] = Integer.bitCount(rows[y]);
+        return maxHeight;
+    }
+
+
+    public int copyRowMasks(int[] out) {
+        System.arraycopy(rows, 0, out, 0, maxHeight);
+        return maxHeight;
+    }
+
+
+    /**
+       BitBoard does not track evaluation features, so this
+       always returns null.
+    */
+    public BoardFeatures getFeatures() {
+        return null;
+    }
+
+
+    /**
+       Returns a 64-bit Zobrist hash of the filled blocks.
+       Maintained incrementally, so this is O(1).
+    */
+    public long getHash() {
+        return hash;
+    }
+
+
+    /**
+       Attempts to add the body of a piece to the board.
+       Copies the piece blocks into the board grid.
+       Returns PLACE_OK for a regular placement, or PLACE_ROW_FILLED
+       for a regular placement that causes at least one row to be filled.
+
+       Error cases:
+       If part of the piece would fall out of bounds, the placement
+       does not change the board at all, and PLACE_OUT_BOUNDS is
+       returned.  If the placement is "bad" --interfering with
+       existing blocks in the grid -- then PLACE_BAD is returned.
+       The precomputed row masks let the whole piece be tested before
+       any of it is written, so a bad placement also leaves the board
+       unchanged; undo() is still allowed.
+    */
+    public int place(Piece piece, int x, int y) {
+        prime();
+        final int pw = piece.getWidth();
+        final int ph = piece.getHeight();
+        if (x < 0 || y < 0 || x + pw > width || y + ph > height)
+            return PLACE_OUT_BOUNDS;
+
+        // test and stamp the piece a row at a time
+        int[] masks = piece.getRowMasks(x);
+        for (int i = 0; i < ph; i++)
+            if ((rows[y + i] & masks[i]) != 0)
+                return PLACE_BAD;
+        int result = PLACE_OK;
+        for (int i = 0; i < ph; i++) {
+            rows[y + i] |= masks[i];
+            setRowContent(y + i, rowContent[y + i] ^ Zobrist.content(masks[i], columnKeys));
+            if (rows[y + i] == fullRow)
+                result = PLACE_ROW_FILLED;
+        }
+
+        // the top row of the piece that has a block in each column
+        // sets that column's height
+        int seen = 0;
+        for (int i = ph - 1; i >= 0; i--) {
+            int bits = masks[i] & ~seen;
+            seen |= bits;
+            for (; bits != 0; bits &= bits - 1) {
+                int px = Integer.numberOfTrailingZeros(bits);
+                if (columnHeights[px] < y + i + 1)
+                    columnHeights[px] = y + i + 1;
+            }
+        }
+        if (maxHeight < y + ph)
+            maxHeight = y + ph;
+        return result;
+    }
+
+
+    /**
+       Deletes rows that are filled all the way across, moving
+       things above down. Returns true if any row clearing happened.
+
+       <p>Implementation: the rows are compacted downward in one
+       pass, then the column heights are rescanned starting from
+       their old height less the number of rows cleared.
+    */
+    public boolean clearRows() {
+        int to = 0;
+        for (int y = 0; y < maxHeight; y++) {
+            if (rows[y] != fullRow) {
+                if (to != y) {
+                    rows[to] = rows[y];
+                    setRowContent(to, rowContent[y]);
+                }
+                to++;
+            }
+        }
+        int cleared = maxHeight - to;
+        if (cleared == 0)
+            return false;
+
+        Arrays.fill(rows, to, maxHeight, 0);
+        for (int y = to; y < maxHeight; y++)
+            setRowContent(y, 0);
+        maxHeight = 0;
+        for (int x = 0; x < width; x++) {
+            int bit = 1 << x;
+            int h = columnHeights[x] - cleared;
+            while (h > 0 && (rows[h - 1] & bit) == 0)
+                h--;
+            columnHeights[x] = h;
+            if (maxHeight < h)
+                maxHeight = h;
+        }
+        return true;
+    }
+
+
+    /**
+       If a place() happens, optionally followed by a clearRows(),
+       a subsequent undo() reverts the board to its state before
+       the place(). If the conditions for undo() are not met, such as
+       calling undo() twice in a row, then the second undo() does nothing.
+       See the overview docs.
+    */
+    public void undo() {
+        if (!primed)
+            return;
+        primed = false;
+        if (markCount > primeDepth)
+            markCount = primeDepth;
+        System.arraycopy(backupRows, 0, rows, 0, height);
+        System.arraycopy(backupRowContent, 0, rowContent, 0, height);
+        System.arraycopy(backupColumnHeights, 0, columnHeights, 0, width);
+        maxHeight = backupMaxHeight;
+        hash = backupHash;
+    }
+
+
+    /**
+       Puts the board in the committed state.
+       See the overview docs.
+    */
+    public void commit() {
+        primed = false;
+        markCount = 0;
+    }
+
+
+    /**
+       Records a checkpoint of the current board state and returns a
+       token for it. Saves the rows up to the max height.
+    */
+    public int mark() {
+        if (markCount == markRows.length) {
+            int n = Math.max(4, 2 * markCount);
+            markRows = Arrays.copyOf(markRows, n);
+            markHeights = Arrays.copyOf(markHeights, n);
+            markMaxHeights = Arrays.copyOf(markMaxHeights, n);
+            markContent = Arrays.copyOf(markContent, n);
+            markHashes = Arrays.copyOf(markHashes, n);
+            for (int i = markCount; i < n; i++) {
+                markRows[i] = new int[height];
+                markHeights[i] = new int[width];
+                markContent[i] = new long[height];
+            }
+        }
+        System.arraycopy(rows, 0, markRows[markCount], 0, maxHeight);
+        System.arraycopy(rowContent, 0, markContent[markCount], 0, maxHeight);
+        System.arraycopy(columnHeights, 0, markHeights[markCount], 0, width);
+        markMaxHeights[markCount] = maxHeight;
+        markHashes[markCount] = hash;
+        return markCount++;
+    }
+
+
+    /**
+       Reverts the board to the state it had when mark() returned
+       the given token.
+    */
+    public void rollbackTo(int mark) {
+        int mh = markMaxHeights[mark];
+        System.arraycopy(markRows[mark], 0, rows, 0, mh);
+        System.arraycopy(markContent[mark], 0, rowContent, 0, mh);
+        if (maxHeight > mh) {
+            Arrays.fill(rows, mh, maxHeight, 0);
+            Arrays.fill(rowContent, mh, maxHeight, 0);
+        }
+        System.arraycopy(markHeights[mark], 0, columnHeights, 0, width);
+        maxHeight = mh;
+        hash = markHashes[mark];
+        markCount = mark;
+        if (primeDepth > mark)
+            primed = false;
+    }
+
+    /**
+       Makes this board a copy of the current contents of the other
+       board, which must be the same size, and puts it in the committed
+       state. Reuses this board's arrays.
+    */
+    public void copyFrom(Board other) {
+        if (other.getWidth() != width || other.getHeight() != height)
+            throw new RuntimeException("copyFrom needs a board of the same size");
+        commit();
+        final int mh = other.getMaxHeight();
+        other.copyRowMasks(rows);
+        if (maxHeight > mh) {
+            Arrays.fill(rows, mh, maxHeight, 0);
+            Arrays.fill(rowContent, mh, maxHeight, 0);
+        }
+        other.copyColumnHeights(columnHeights);
+        maxHeight = mh;
+        if (other instanceof BitBoard) {
+            BitBoard board = (BitBoard)other;
+            System.arraycopy(board.rowContent, 0, rowContent, 0, mh);
+            hash = board.hash;
+        } else {
+            hash = 0;
+            for (int y = 0; y < mh; y++) {
+                rowContent[y] = Zobrist.content(rows[y], columnKeys);
+                hash ^= Zobrist.term(rowContent[y], rowKeys[y]);
+            }
+        }
+    }
+
+    public Board newBoard() {
+        return new BitBoard(width, height);
+    }
+
+    private void prime() {
+        primed = true;
+        primeDepth = markCount;
+        System.arraycopy(rows, 0, backupRows, 0, height);
+        System.arraycopy(rowContent, 0, backupRowContent, 0, height);
+        System.arraycopy(columnHeights, 0, backupColumnHeights, 0, width);
+        backupMaxHeight = maxHeight;
+        backupHash = hash;
+    }
+
+    // Changes the content key of a row, updating the board hash.
+    private void setRowContent(int y, long content) {
+        hash ^= Zobrist.term(rowContent[y], rowKeys[y]) ^ Zobrist.term(content, rowKeys[y]);
+        rowContent[y] = content;
+    }
+}
@@ -1,4 +1,3 @@
-import java.awt.*;
 import java.util.*;
 
 /**
@@ -46,7 +45,42 @@ interface Board {
        Implementation: use the skirt and the col heights
        to compute this fast -- O(skirt length).
     */
-    int dropHeight(Piece piece, int x);
+    default int dropHeight(Piece piece, int x) {
+        int[] skirt = piece.getSkirt();
+        int max = 0;
+        for (int ix = 0; ix < skirt.length; ix++) {
+            int local = getColumnHeight(x + ix) - skirt[ix];
+            if (max < local)
+                max = local;
+        }
+        return max;
+    }
+
+
+    /**
+       Fills out[x] with dropHeight(piece, x) for every x from 0 to
+       getWidth() - piece.getWidth(), and returns the number of x
+       values filled in. Does the whole row of drops in one pass over
+       the column heights, which is cheaper than a dropHeight() call
+       per column.
+    */
+    int dropHeights(Piece piece, int[] out);
+
+
+    /**
+       Calls dropHeights(rotation, out[r]) for each rotation of the
+       piece in nextRotation() order, with the piece itself as
+       rotation 0. Returns the number of rotations.
+    */
+    default int dropHeights(Piece piece, int[][] out) {
+        int r = 0;
+        Piece current = piece;
+        do {
+            dropHeights(current, out[r++]);
+            current = current.nextRotation();
+        } while (current != piece);
+        return r;
+    }
 
 
     /**
@@ -72,6 +106,48 @@ interface Board {
     boolean getGrid(int x, int y);
 
 
+    /**
+       Copies the column heights into out[0] to out[width-1].
+       One call instead of a getColumnHeight() per column, so an
+       evaluator can loop over a plain array.
+    */
+    void copyColumnHeights(int[] out);
+
+
+    /**
+       Copies the row widths of the rows below the max height into
+       out[0] to out[maxHeight-1], and returns the max height. The
+       rows above are all empty.
+    */
+    int copyRowWidths(int[] out);
+
+
+    /**
+       Copies the rows below the max height into out[0] to
+       out[maxHeight-1] as bitmasks, bit x set if block (x, y) is
+       filled, and returns the max height. Only for boards at most
+       32 wide.
+    */
+    int copyRowMasks(int[] out);
+
+
+    /**
+       Returns a 64-bit Zobrist hash of the filled blocks. Two boards
+       with the same blocks filled return the same hash, whatever their
+       implementation, so the hash can key caches of board evaluations
+       and detect repeated search states.
+    */
+    long getHash();
+
+
+    /**
+       Returns a read-only view of the evaluation features (holes,
+       heights, wells, transitions) of the board, kept up to date as the
+       board changes, or null if this board does not track them.
+    */
+    BoardFeatures getFeatures();
+
+
     static final int PLACE_OK = 0;
     static final int PLACE_ROW_FILLED = 1;
     static final int PLACE_OUT_BOUNDS = 2;
@@ -121,4 +197,41 @@ interface Board {
        See the overview docs.
     */
     void commit();
+
+
+    /**
+       Records a checkpoint of the current board state and returns a
+       token for it. Checkpoints nest: any number of place() and
+       clearRows() calls, including further mark()s, may follow, and
+       rollbackTo() with the token returns the board to this state.
+       This lets a search look several pieces ahead on one board
+       without copying it. commit() discards all checkpoints.
+    */
+    int mark();
+
+
+    /**
+       Reverts the board to the state it had when mark() returned
+       the given token. That checkpoint and any made after it are
+       discarded. If the last place() happened after the checkpoint,
+       a following undo() does nothing.
+    */
+    void rollbackTo(int mark);
+
+
+    /**
+       Makes this board a copy of the current contents of the other
+       board, which must be the same size, and puts it in the committed
+       state. Lets a search keep scratch boards and refill them instead
+       of allocating new ones.
+    */
+    void copyFrom(Board other);
+
+
+    /**
+       Returns a new, empty board of the same kind and size as this
+       one, i.e. for a search to keep as a scratch board and copyFrom()
+       this one into.
+    */
+    Board newBoard();
 }
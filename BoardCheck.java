@@ -0,0 +1,195 @@
+import java.util.*;
+
+
+/**
+   A headless consistency check for the Board implementations.
+
+   Plays random games on a TetrisBoard (with feature tracking on) and a
+   BitBoard in lockstep: placements, good and bad, row clearing,
+   undo(), commit(), nested mark()/rollbackTo() checkpoints (including
+   several marks with no change between them) and copyFrom(). After
+   every step the two boards must agree on every block, height, width
+   and hash, and both must pass sanityCheck(), which recomputes the
+   TetrisBoard's hash and tracked features from scratch. A BitBoard
+   refilled with copyFrom() gives a third, independently computed hash.
+
+   Usage: java BoardCheck [games] [seed]
+*/
+public class BoardCheck {
+    private final Random random;
+    private final Piece[] rotations;
+
+    private TetrisBoard tetris;
+    private BitBoard bits;
+    private BitBoard copy;
+    private int width, height;
+
+    // the checkpoints the boards should still have, outermost first;
+    // tokens are each board's own business, so both are kept
+    private int[] tetrisMarks = new int[64], bitMarks = new int[64];
+    private int markCount = 0;
+    private boolean primed = false;
+    private int primeDepth = 0;
+    private long steps = 0;
+
+
+    public BoardCheck(long seed) {
+        random = new Random(seed);
+        ArrayList<Piece> all = new ArrayList<>();
+        for (Piece piece : PieceSet.standard().getPieces()) {
+            Piece current = piece;
+            do {
+                all.add(current);
+                current = current.nextRotation();
+            } while (current != piece);
+        }
+        rotations = all.toArray(new Piece[all.size()]);
+    }
+
+
+    /**
+       Plays one random game on boards of the given size, throwing a
+       RuntimeException at the first disagreement.
+    */
+    public void playGame(int width, int height, int moves) {
+        this.width = width;
+        this.height = height;
+        tetris = new TetrisBoard(width, height);
+        tetris.setFeatureTracking(true);
+        bits = new BitBoard(width, height);
+        copy = new BitBoard(width, height);
+        markCount = 0;
+        primed = false;
+
+        for (int n = 0; n < moves; n++) {
+            int op = random.nextInt(10);
+            if (op < 5)
+                place();
+            else if (op < 7)
+                mark();
+            else if (op < 8)
+                rollback();
+            else if (op < 9)
+                undo();
+            else
+                commit();
+            compare();
+
+            // keep the game going once the board fills up
+            if (!primed && markCount == 0 && tetris.getMaxHeight() > height - 4) {
+                tetris.copyFrom(new TetrisBoard(width, height));
+                bits.copyFrom(new BitBoard(width, height));
+                compare();
+            }
+        }
+    }
+
+    private void place() {
+        Piece piece = rotations[random.nextInt(rotations.length)];
+        int x, y;
+        if (random.nextInt(8) > 0 && piece.getWidth() <= width) {
+            x = random.nextInt(width - piece.getWidth() + 1);
+            y = tetris.dropHeight(piece, x);
+        } else {
+            // anywhere, often overlapping or out of bounds
+            x = random.nextInt(width + 2) - 1;
+            y = random.nextInt(height + 2) - 1;
+        }
+
+        primed = true;
+        primeDepth = markCount;
+        int result = tetris.place(piece, x, y);
+        int other = bits.place(piece, x, y);
+        if (result != other)
+            fail("place() returned " + result + " and " + other);
+        if (result > Board.PLACE_ROW_FILLED) {
+            // a bad placement may leave blocks behind -- back it out
+            undo();
+            return;
+        }
+        if (random.nextInt(4) > 0) {
+            boolean cleared = tetris.clearRows();
+            if (cleared != bits.clearRows())
+                fail("clearRows() disagreed");
+            if (result == Board.PLACE_ROW_FILLED && !cleared)
+                fail("clearRows() found no row place() filled");
+        }
+    }
+
+    private void mark() {
+        int times = (random.nextInt(3) == 0) ? 2 : 1;	// marks with no change between
+        for (int i = 0; i < times && markCount < tetrisMarks.length; i++) {
+            tetrisMarks[markCount] = tetris.mark();
+            bitMarks[markCount] = bits.mark();
+            markCount++;
+        }
+    }
+
+    private void rollback() {
+        if (markCount == 0)
+            return;
+        int i = random.nextInt(markCount);
+        tetris.rollbackTo(tetrisMarks[i]);
+        bits.rollbackTo(bitMarks[i]);
+        markCount = i;
+        if (primeDepth > i)
+            primed = false;
+    }
+
+    private void undo() {
+        tetris.undo();
+        bits.undo();
+        if (primed && markCount > primeDepth)
+            markCount = primeDepth;
+        primed = false;
+    }
+
+    private void commit() {
+        tetris.commit();
+        bits.commit();
+        markCount = 0;
+        primed = false;
+    }
+
+    private void compare() {
+        steps++;
+        if (tetris.getMaxHeight() != bits.getMaxHeight())
+            fail("max heights differ");
+        for (int x = 0; x < width; x++) {
+            if (tetris.getColumnHeight(x) != bits.getColumnHeight(x))
+                fail("column heights differ at x=" + x);
+            for (int y = 0; y < height; y++)
+                if (tetris.getGrid(x, y) != bits.getGrid(x, y))
+                    fail("blocks differ at " + x + "," + y);
+        }
+        for (int y = 0; y < height; y++)
+            if (tetris.getRowWidth(y) != bits.getRowWidth(y))
+                fail("row widths differ at y=" + y);
+        if (tetris.getHash() != bits.getHash())
+            fail("hashes differ");
+        copy.copyFrom(tetris);
+        if (copy.getHash() != tetris.getHash())
+            fail("hash differs from a copy's");
+        tetris.sanityCheck();
+        bits.sanityCheck();
+    }
+
+    private void fail(String message) {
+        throw new RuntimeException("Boards disagree after " + steps + " steps: " + message);
+    }
+
+
+    public static void main(String[] args) {
+        int games = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 0;
+
+        BoardCheck check = new BoardCheck(seed);
+        Random sizes = new Random(seed);
+        for (int g = 0; g < games; g++) {
+            int width = 4 + sizes.nextInt(9);
+            int height = 8 + sizes.nextInt(17);
+            check.playGame(width, height, 1000);
+        }
+        System.out.println("OK: " + games + " games, " + check.steps + " steps");
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.*;
+import java.nio.*;
+
+
+/**
+   A compact binary format for boards, for logging and replaying
+   large numbers of positions.
+
+   <pre>
+   u16 width, u16 height, u16 rows
+   rows * ((width+7)/8) bytes  -- row y, bit x%8 of byte x/8 set if
+                                  block (x, y) is filled
+   </pre>
+   Only the rows up to the board's max height are written, since the
+   rows above it are empty; a standard 10x24 board with 8 rows in use
+   takes 22 bytes. Encoding and decoding work on primitives only.
+
+   Since the encoding of a board is unique, the bytes of two boards
+   are equal exactly when the boards are, so key() can be used as a
+   map key for caches keyed by board position.
+*/
+public final class BoardCodec {
+    private static final int HEADER = 6;
+
+    private BoardCodec() {
+    }
+
+
+    /**
+       Returns the number of bytes write() produces for the board.
+    */
+    public static int encodedSize(Board board) {
+        return HEADER + board.getMaxHeight() * ((board.getWidth() + 7) / 8);
+    }
+
+
+    /**
+       Writes the board at the buffer's position, advancing it.
+    */
+    public static void write(Board board, ByteBuffer buf) {
+        final int width = board.getWidth();
+        final int rows = board.getMaxHeight();
+        final int rowBytes = (width + 7) / 8;
+        buf.putShort((short)width);
+        buf.putShort((short)board.getHeight());
+        buf.putShort((short)rows);
+        if (width <= 32) {	// read the rows in one call
+            int[] masks = new int[rows];
+            board.copyRowMasks(masks);
+            for (int y = 0; y < rows; y++)
+                for (int b = 0; b < rowBytes; b++)
+                    buf.put((byte)(masks[y] >>> (8 * b)));
+            return;
+        }
+        for (int y = 0; y < rows; y++) {
+            for (int b = 0; b < rowBytes; b++) {
+                int bits = 0;
+                int end = Math.min(8, width - 8 * b);
+                for (int i = 0; i < end; i++)
+                    if (board.getGrid(8 * b + i, y))
+                        bits |= 1 << i;
+                buf.put((byte)bits);
+            }
+        }
+    }
+
+
+    /**
+       Returns the encoding of the board as a new array.
+    */
+    public static byte[] toBytes(Board board) {
+        byte[] bytes = new byte[encodedSize(board)];
+        write(board, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+
+    /**
+       Returns the encoding of the board wrapped in a ByteBuffer. Byte
+       buffers compare and hash by content, so this works as a map key.
+    */
+    public static ByteBuffer key(Board board) {
+        return ByteBuffer.wrap(toBytes(board));
+    }
+
+
+    /**
+       Writes the board to the stream.
+    */
+    public static void write(Board board, OutputStream out) throws IOException {
+        out.write(toBytes(board));
+    }
+
+
+    /**
+       Reads a board from the buffer's position, advancing it.
+    */
+    public static TetrisBoard read(ByteBuffer buf) {
+        int width = buf.getShort(buf.position()) & 0xffff;
+        int height = buf.getShort(buf.position() + 2) & 0xffff;
+        TetrisBoard board = new TetrisBoard(width, height);
+        read(buf, board);
+        return board;
+    }
+
+
+    /**
+       Reads a board from the buffer's position into an existing board
+       of the same size, replacing its contents. The board is left in
+       the committed state. Lets a replay reuse one board rather than
+       allocate one per position.
+    */
+    public static void read(ByteBuffer buf, TetrisBoard board) {
+        final int width = buf.getShort() & 0xffff;
+        final int height = buf.getShort() & 0xffff;
+        final int rows = buf.getShort() & 0xffff;
+        if (width != board.getWidth() || height != board.getHeight() || rows > height)
+            throw new RuntimeException("Encoded board is " + width + "x" + height
+                                       + ", rows " + rows);
+        final int rowBytes = (width + 7) / 8;
+        board.clear();
+        if (width <= 32) {
+            for (int y = 0; y < rows; y++) {
+                int mask = 0;
+                for (int b = 0; b < rowBytes; b++)
+                    mask |= (buf.get() & 0xff) << (8 * b);
+                board.fillRow(y, mask);
+            }
+            return;
+        }
+        for (int y = 0; y < rows; y++) {
+            for (int b = 0; b < rowBytes; b++) {
+                int bits = buf.get() & 0xff;
+                while (bits != 0) {
+                    int i = Integer.numberOfTrailingZeros(bits);
+                    board.fill(8 * b + i, y);
+                    bits &= bits - 1;
+                }
+            }
+        }
+    }
+
+
+    /**
+       Reads a board from the stream.
+    */
+    public static TetrisBoard read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] header = new byte[HEADER];
+        data.readFully(header);
+        ByteBuffer buf = ByteBuffer.wrap(header);
+        int width = buf.getShort(0) & 0xffff;
+        int rows = buf.getShort(4) & 0xffff;
+        byte[] bytes = new byte[HEADER + rows * ((width + 7) / 8)];
+        System.arraycopy(header, 0, bytes, 0, HEADER);
+        data.readFully(bytes, HEADER, bytes.length - HEADER);
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+
+    /**
+       Decodes a board from an array produced by toBytes().
+    */
+    public static TetrisBoard fromBytes(byte[] bytes) {
+        return read(ByteBuffer.wrap(bytes));
+    }
+}
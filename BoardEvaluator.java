@@ -0,0 +1,10 @@
+/**
+   Rates a board position -- larger numbers for worse boards.
+   Brains that search many positions (see ParallelBrain) take an
+   evaluator, so the scoring can be swapped without changing the search.
+   An evaluator shared by several threads must not keep any state
+   between calls.
+*/
+public interface BoardEvaluator {
+    public double rateBoard(Board board);
+}
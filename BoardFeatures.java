@@ -0,0 +1,39 @@
+/**
+   A read-only view of the features an evaluator typically scores a
+   board by. A board that tracks these keeps them up to date as pieces
+   are placed, rows cleared and moves undone, so reading one is O(1)
+   instead of a scan of the grid.
+
+   Definitions (x across, y up, h(x) the height of column x):
+   <ul>
+   <li>holes -- empty blocks below the highest block of their column
+   <li>aggregate height -- the sum of h(x)
+   <li>bumpiness -- the sum of |h(x) - h(x+1)| over adjacent columns
+   <li>well depth -- for column x, how far it lies below the lower of
+       its two neighbours (a side wall counts as infinitely high), or 0
+   <li>row transitions -- over the non-empty rows, the number of
+       adjacent blocks that differ filled/empty, with the side walls
+       counting as filled
+   <li>column transitions -- over every column, the number of
+       vertically adjacent blocks that differ filled/empty, from the
+       floor (counted as filled) to the top of the board
+   </ul>
+*/
+public interface BoardFeatures {
+    int getHoles();
+
+    int getAggregateHeight();
+
+    int getBumpiness();
+
+    int getWellDepth(int x);
+
+    /**
+       Returns the sum of the well depths of all the columns.
+    */
+    int getWellSum();
+
+    int getRowTransitions();
+
+    int getColumnTransitions();
+}
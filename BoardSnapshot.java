@@ -0,0 +1,430 @@
+import java.util.*;
+
+
+/**
+   An immutable picture of a tetris board, safe to hand to other
+   threads, replay logs or the renderer without locking.
+
+   The rows are stored as int bitmasks in fixed size chunks. place()
+   and clearRows() return a new snapshot that shares every chunk they
+   did not change with the receiver (copy-on-write), so keeping a long
+   history of snapshots costs little more than the rows that actually
+   changed. Boards are limited to 32 columns, as with BitBoard.
+
+   Brains work on a Board, so asBoard() gives a read-only Board view
+   of a snapshot. A worker thread can copyFrom() the view into a board
+   of its own, while the game goes on changing the live board.
+*/
+public final class BoardSnapshot {
+    private static final int CHUNK = 4;	// rows per shared chunk
+    private static final int[] EMPTY_CHUNK = new int[CHUNK];
+
+    private final int width, height;
+    private final int fullRow;
+    private final int[][] chunks;
+    private final int[] columnHeights;
+    private final int maxHeight;
+    private int hash;	// lazily computed, 0 if not yet known
+    private Board view;	// lazily created by asBoard()
+
+
+    private BoardSnapshot(int width, int height, int[][] chunks,
+                          int[] columnHeights, int maxHeight) {
+        this.width = width;
+        this.height = height;
+        this.fullRow = (width == BitBoard.MAX_WIDTH) ? -1 : (1 << width) - 1;
+        this.chunks = chunks;
+        this.columnHeights = columnHeights;
+        this.maxHeight = maxHeight;
+    }
+
+
+    /**
+       Returns an empty snapshot of the given width and height
+       measured in blocks.
+    */
+    public static BoardSnapshot empty(int width, int height) {
+        if (width > BitBoard.MAX_WIDTH)
+            throw new RuntimeException("BoardSnapshot width must be at most " + BitBoard.MAX_WIDTH);
+        int[][] chunks = new int[(height + CHUNK - 1) / CHUNK][];
+        Arrays.fill(chunks, EMPTY_CHUNK);
+        return new BoardSnapshot(width, height, chunks, new int[width], 0);
+    }
+
+
+    /**
+       Takes a snapshot of the given board. Only the rows below the
+       board's max height are read.
+    */
+    public static BoardSnapshot of(Board board) {
+        return of(board, null);
+    }
+
+
+    /**
+       Takes a snapshot of the given board, sharing every chunk of
+       rows that is unchanged from the previous snapshot (which may be
+       null). Taking a snapshot of a game every tick this way keeps only
+       the rows that changed.
+    */
+    public static BoardSnapshot of(Board board, BoardSnapshot previous) {
+        final int width = board.getWidth();
+        final int height = board.getHeight();
+        int[][] chunks = empty(width, height).chunks;
+        if (previous != null && (previous.width != width || previous.height != height))
+            previous = null;
+
+        int[] heights = new int[width];
+        board.copyColumnHeights(heights);
+        int[] rows = new int[height];
+        final int maxHeight = board.copyRowMasks(rows);
+        int[] scratch = new int[CHUNK];
+        for (int c = 0; c * CHUNK < maxHeight; c++) {
+            boolean empty = true;
+            for (int i = 0; i < CHUNK; i++) {
+                int y = c * CHUNK + i;
+                scratch[i] = (y < maxHeight) ? rows[y] : 0;
+                if (scratch[i] != 0)
+                    empty = false;
+            }
+            if (empty)
+                continue;
+            if (previous != null && Arrays.equals(previous.chunks[c], scratch))
+                chunks[c] = previous.chunks[c];
+            else
+                chunks[c] = scratch.clone();
+        }
+        return new BoardSnapshot(width, height, chunks, heights, maxHeight);
+    }
+
+
+    /**
+       Returns the width of the board in blocks.
+    */
+    public int getWidth() {
+        return width;
+    }
+
+
+    /**
+       Returns the height of the board in blocks.
+    */
+    public int getHeight() {
+        return height;
+    }
+
+
+    /**
+       Returns the max column height present in the board.
+       For an empty board this is 0.
+    */
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+
+    /**
+       Returns the height of the given column --
+       i.e. the y value of the highest block + 1.
+    */
+    public int getColumnHeight(int x) {
+        return columnHeights[x];
+    }
+
+
+    /**
+       Returns the filled blocks of the given row as a bitmask,
+       bit x set if block (x, y) is filled.
+    */
+    public int getRow(int y) {
+        return chunks[y / CHUNK][y % CHUNK];
+    }
+
+
+    /**
+       Returns the number of filled blocks in
+       the given row.
+    */
+    public int getRowWidth(int y) {
+        return Integer.bitCount(getRow(y));
+    }
+
+
+    /**
+       Returns true if the given block is filled in the board.
+       Blocks outside of the valid width/height area
+       always return true.
+    */
+    public boolean getGrid(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return true;
+        return (getRow(y) & (1 << x)) != 0;
+    }
+
+
+    /**
+       Given a piece and an x, returns the y
+       value where the piece would come to rest
+       if it were dropped straight down at that x.
+    */
+    public int dropHeight(Piece piece, int x) {
+        return asBoard().dropHeight(piece, x);
+    }
+
+
+    /**
+       Returns a read-only Board with the contents of this snapshot.
+       Its place(), clearRows(), mark(), rollbackTo() and copyFrom()
+       throw a RuntimeException; undo() and commit() do nothing, as
+       the view is always in the committed state. Feature tracking is
+       not available.
+    */
+    public Board asBoard() {
+        if (view == null)
+            view = new View();
+        return view;
+    }
+
+
+    /**
+       Returns true if any row is filled all the way across.
+    */
+    public boolean hasFullRows() {
+        for (int y = 0; y < maxHeight; y++)
+            if (getRow(y) == fullRow)
+                return true;
+        return false;
+    }
+
+
+    /**
+       Returns a new snapshot with the piece added at the given
+       position, or null if the piece would be out of bounds or
+       interfere with existing blocks. Only the chunks the piece
+       touches are copied; the rest are shared with the receiver.
+       Full rows are left in place -- follow with clearRows().
+    */
+    public BoardSnapshot place(Piece piece, int x, int y) {
+        final int[] bodyX = piece.getBodyX();
+        final int[] bodyY = piece.getBodyY();
+        for (int i = 0; i < bodyX.length; i++) {
+            int px = bodyX[i] + x;
+            int py = bodyY[i] + y;
+            if (px < 0 || py < 0 || px >= width || py >= height)
+                return null;
+            if ((getRow(py) & (1 << px)) != 0)
+                return null;
+        }
+
+        int[][] next = chunks.clone();
+        int[] heights = columnHeights.clone();
+        int mh = maxHeight;
+        for (int i = 0; i < bodyX.length; i++) {
+            int px = bodyX[i] + x;
+            int py = bodyY[i] + y;
+            int c = py / CHUNK;
+            if (next[c] == chunks[c])
+                next[c] = chunks[c].clone();
+            next[c][py % CHUNK] |= 1 << px;
+            if (heights[px] <= py) {
+                heights[px] = py + 1;
+                if (mh <= py)
+                    mh = py + 1;
+            }
+        }
+        return new BoardSnapshot(width, height, next, heights, mh);
+    }
+
+
+    /**
+       Returns a new snapshot with the full rows deleted and the
+       rows above moved down, or the receiver itself if no row is
+       full. Chunks below the lowest full row are shared.
+    */
+    public BoardSnapshot clearRows() {
+        int first = -1;
+        for (int y = 0; y < maxHeight; y++) {
+            if (getRow(y) == fullRow) {
+                first = y;
+                break;
+            }
+        }
+        if (first < 0)
+            return this;
+
+        int[][] next = chunks.clone();
+        int to = first;
+        for (int y = first; y < maxHeight; y++) {
+            int row = getRow(y);
+            if (row != fullRow)
+                setRow(next, to++, row);
+        }
+        int cleared = maxHeight - to;
+        for (int y = to; y < maxHeight; y++)
+            setRow(next, y, 0);
+        // chunks that became all empty go back to the shared one
+        for (int c = to / CHUNK; c < next.length && c * CHUNK < maxHeight; c++)
+            if (next[c] != EMPTY_CHUNK && Arrays.equals(next[c], EMPTY_CHUNK))
+                next[c] = EMPTY_CHUNK;
+
+        int[] heights = new int[width];
+        int mh = 0;
+        for (int x = 0; x < width; x++) {
+            int bit = 1 << x;
+            int h = columnHeights[x] - cleared;
+            while (h > 0 && (next[(h - 1) / CHUNK][(h - 1) % CHUNK] & bit) == 0)
+                h--;
+            heights[x] = h;
+            if (mh < h)
+                mh = h;
+        }
+        return new BoardSnapshot(width, height, next, heights, mh);
+    }
+
+    // Writes a row into a chunk array being built by clearRows(),
+    // copying the chunk first if it is still shared with this snapshot.
+    private void setRow(int[][] next, int y, int row) {
+        int c = y / CHUNK;
+        if (next[c] == chunks[c]) {
+            if (chunks[c][y % CHUNK] == row)
+                return;
+            next[c] = chunks[c].clone();
+        }
+        next[c][y % CHUNK] = row;
+    }
+
+
+    /**
+       Two snapshots are equal if they have the same size and the
+       same blocks filled.
+    */
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof BoardSnapshot))
+            return false;
+        BoardSnapshot snap = (BoardSnapshot)other;
+        if (snap.width != width || snap.height != height || snap.maxHeight != maxHeight)
+            return false;
+        for (int c = 0; c < chunks.length; c++)
+            if (chunks[c] != snap.chunks[c] && !Arrays.equals(chunks[c], snap.chunks[c]))
+                return false;
+        return true;
+    }
+
+
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = 31 * width + height;
+            for (int y = 0; y < maxHeight; y++)
+                h = 31 * h + getRow(y);
+            hash = h;
+        }
+        return h;
+    }
+
+
+    /**
+       The read-only Board view of a snapshot, for asBoard().
+    */
+    private final class View implements Board {
+        private volatile long zobrist;	// lazily computed, 0 if not yet known
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getMaxHeight() {
+            return maxHeight;
+        }
+
+        public void sanityCheck() {
+        }
+
+        public int dropHeights(Piece piece, int[] out) {
+            int n = width - piece.getWidth() + 1;
+            for (int x = 0; x < n; x++)
+                out[x] = dropHeight(piece, x);
+            return Math.max(0, n);
+        }
+
+        public int getColumnHeight(int x) {
+            return columnHeights[x];
+        }
+
+        public int getRowWidth(int y) {
+            return BoardSnapshot.this.getRowWidth(y);
+        }
+
+        public boolean getGrid(int x, int y) {
+            return BoardSnapshot.this.getGrid(x, y);
+        }
+
+        public void copyColumnHeights(int[] out) {
+            System.arraycopy(columnHeights, 0, out, 0, width);
+        }
+
+        public int copyRowWidths(int[] out) {
+            for (int y = 0; y < maxHeight; y++)
+                out[y] = Integer.bitCount(getRow(y));
+            return maxHeight;
+        }
+
+        public int copyRowMasks(int[] out) {
+            for (int c = 0; c * CHUNK < maxHeight; c++)
+                System.arraycopy(chunks[c], 0, out, c * CHUNK, Math.min(CHUNK, maxHeight - c * CHUNK));
+            return maxHeight;
+        }
+
+        public long getHash() {
+            long h = zobrist;
+            if (h == 0) {
+                long[] columnKeys = Zobrist.columnKeys(width);
+                long[] rowKeys = Zobrist.rowKeys(height);
+                for (int y = 0; y < maxHeight; y++)
+                    h ^= Zobrist.term(Zobrist.content(getRow(y), columnKeys), rowKeys[y]);
+                zobrist = h;
+            }
+            return h;
+        }
+
+        public BoardFeatures getFeatures() {
+            return null;
+        }
+
+        public int place(Piece piece, int x, int y) {
+            throw new RuntimeException("BoardSnapshot is read only");
+        }
+
+        public boolean clearRows() {
+            throw new RuntimeException("BoardSnapshot is read only");
+        }
+
+        public void undo() {
+        }
+
+        public void commit() {
+        }
+
+        public int mark() {
+            throw new RuntimeException("BoardSnapshot is read only");
+        }
+
+        public void rollbackTo(int mark) {
+            throw new RuntimeException("BoardSnapshot is read only");
+        }
+
+        public void copyFrom(Board other) {
+            throw new RuntimeException("BoardSnapshot is read only");
+        }
+
+        public Board newBoard() {
+            return new BitBoard(width, height);	// a board that can be played on
+        }
+    }
+}
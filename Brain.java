@@ -29,4 +29,41 @@ public interface Brain {
                                Piece piece,
                                int limitHeight,
                                Brain.Move move);
+
+
+    /**
+       Same as bestMove() above, but also given the pieces that will
+       come after this one, the next first (it may be empty). A brain
+       that looks ahead can use them to choose a better play for this
+       piece; by default they are ignored. A brain that searches for
+       long should stop early if its thread is interrupted, returning
+       the best play it has found so far.
+    */
+    public default Brain.Move bestMove(Board board,
+                                       Piece piece,
+                                       Piece[] preview,
+                                       int limitHeight,
+                                       Brain.Move move) {
+        return bestMove(board, piece, limitHeight, move);
+    }
+
+
+    /**
+       Fills out with the best k plays for the piece, best first, and
+       returns how many there are (fewer than k if there are not that
+       many plays). The buffer is reused, so a brain can rank moves
+       without allocating. By default only the single bestMove() is
+       given.
+    */
+    public default int bestMoves(Board board,
+                                 Piece piece,
+                                 int limitHeight,
+                                 MoveBuffer out,
+                                 int k) {
+        out.reset(k);
+        Brain.Move move = bestMove(board, piece, limitHeight, out.scratchMove());
+        if (move != null)
+            out.offer(move.piece, move.x, move.y, move.score);
+        return out.size();
+    }
 }
@@ -0,0 +1,201 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+   A headless harness for tuning the LameBrain weights by self-play.
+
+   Each generation, the optimizer proposes weight vectors; every
+   vector plays the same set of seeded games, and its fitness is the
+   average number of lines it cleared. The games are independent -- each
+   has its own board, brain and piece generator -- and run on a fixed
+   pool with one thread per core, so the work scales with the cores.
+   The best vector found is written to a file.
+
+   Usage: java BrainTuner [generations] [games] [maxPieces] [outfile]
+*/
+public class BrainTuner {
+    public static final int WIDTH = JTetris.WIDTH;
+    public static final int HEIGHT = JTetris.HEIGHT;
+    public static final int TOP_SPACE = JTetris.TOP_SPACE;
+
+    private final int games;
+    private final int maxPieces;
+    private final SplittableRandom seeds;
+    private final ExecutorService pool;
+
+
+    /**
+       Creates a tuner that plays the given number of games per
+       candidate, each stopped after maxPieces pieces if it has not
+       ended, with seeds drawn from the given master seed.
+    */
+    public BrainTuner(int games, int maxPieces, long seed, int threads) {
+        this.games = games;
+        this.maxPieces = maxPieces;
+        this.seeds = new SplittableRandom(seed);
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "BrainTuner");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+
+    /**
+       Plays one game with the given weights and piece seed, and
+       returns the number of lines cleared. The game ends when no piece
+       fits below the top space, or after maxPieces pieces.
+    */
+    public static int playGame(double[] weights, long seed, int maxPieces) {
+        Board board = new BitBoard(WIDTH, HEIGHT + TOP_SPACE);
+        LameBrain brain = new LameBrain(weights[0], weights[1], weights[2]);
+        Piece[] pieces = PieceSet.standard().getPieces();
+        PieceGenerator generator = new PieceGenerator.Uniform(pieces.length, seed);
+        Brain.Move move = new Brain.Move();
+        int lines = 0;
+
+        for (int n = 0; n < maxPieces; n++) {
+            Piece piece = pieces[generator.next()];
+            if (brain.bestMove(board, piece, HEIGHT, move) == null)
+                break;
+            board.place(move.piece, move.x, move.y);
+            for (int y = move.y; y < move.y + move.piece.getHeight(); y++)
+                if (board.getRowWidth(y) == WIDTH)
+                    lines++;
+            board.clearRows();
+            board.commit();
+            if (board.getMaxHeight() > HEIGHT)
+                break;
+        }
+        return lines;
+    }
+
+
+    /**
+       Returns the fitness of each candidate: the average lines cleared
+       over the same games. Every game of every candidate is a separate
+       task on the pool.
+    */
+    public double[] evaluate(double[][] candidates) {
+        final long[] gameSeeds = new long[games];
+        for (int g = 0; g < games; g++)
+            gameSeeds[g] = seeds.nextLong();
+
+        final int[][] lines = new int[candidates.length][games];
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        for (int c = 0; c < candidates.length; c++) {
+            for (int g = 0; g < games; g++) {
+                final int cc = c, gg = g;
+                final double[] weights = candidates[c];
+                tasks.add(() -> {
+                    lines[cc][gg] = playGame(weights, gameSeeds[gg], maxPieces);
+                    return null;
+                });
+            }
+        }
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks))
+                f.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Tuning interrupted");
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException("A tuning game failed: " + e.getCause());
+        }
+
+        double[] fitness = new double[candidates.length];
+        for (int c = 0; c < candidates.length; c++) {
+            long sum = 0;
+            for (int g = 0; g < games; g++)
+                sum += lines[c][g];
+            fitness[c] = (double)sum / games;
+        }
+        return fitness;
+    }
+
+
+    /**
+       Runs the optimizer for the given number of generations, printing
+       progress, and returns the best vector found.
+    */
+    public double[] tune(WeightOptimizer optimizer, int generations, PrintStream log) {
+        for (int gen = 0; gen < generations; gen++) {
+            long start = System.currentTimeMillis();
+            double[][] candidates = optimizer.ask();
+            double[] fitness = evaluate(candidates);
+            optimizer.tell(candidates, fitness);
+
+            double mean = 0;
+            for (double f : fitness)
+                mean += f;
+            mean /= fitness.length;
+            log.println("generation " + gen + ": mean " + round(mean) + " best so far "
+                        + round(optimizer.getBestFitness()) + " " + format(optimizer.getBest())
+                        + " (" + (System.currentTimeMillis() - start) + " ms)");
+        }
+        return optimizer.getBest();
+    }
+
+
+    /**
+       Stops the worker threads.
+    */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+
+    /**
+       Writes the weights to the file as one line of numbers, with a
+       comment giving their fitness.
+    */
+    public static void writeWeights(String filename, double[] weights, double fitness) {
+        try (PrintWriter out = new PrintWriter(new FileWriter(filename))) {
+            out.println("# LameBrain weights: max height, average height, holes");
+            out.println("# average lines cleared: " + fitness);
+            out.println(format(weights));
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Could not write weights file:" + filename);
+        }
+    }
+
+    private static String format(double[] weights) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < weights.length; i++) {
+            if (i > 0)
+                s.append(' ');
+            s.append(weights[i]);
+        }
+        return s.toString();
+    }
+
+    private static double round(double d) {
+        return Math.round(d * 100) / 100.0;
+    }
+
+
+    public static void main(String[] args) {
+        int generations = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+        int games = (args.length > 1) ? Integer.parseInt(args[1]) : 32;
+        int maxPieces = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        String outfile = (args.length > 3) ? args[3] : "weights.txt";
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        BrainTuner tuner = new BrainTuner(games, maxPieces, 0, threads);
+        double[] start = new LameBrain().getWeights();
+        WeightOptimizer optimizer = new CrossEntropyOptimizer(
+            start, new double[] { 4, 20, 1 }, 24, 6, 0.1, 0);
+
+        System.out.println("tuning with " + threads + " threads, " + games
+                           + " games of up to " + maxPieces + " pieces per candidate");
+        double[] best = tuner.tune(optimizer, generations, System.out);
+        tuner.shutdown();
+        writeWeights(outfile, best, optimizer.getBestFitness());
+        System.out.println("wrote " + format(best) + " to " + outfile);
+    }
+}
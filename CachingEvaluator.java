@@ -0,0 +1,76 @@
+import java.util.concurrent.atomic.*;
+
+
+/**
+   A BoardEvaluator that remembers the scores of another evaluator in
+   an EvaluationCache, keyed by the board's Zobrist hash. A board that
+   was rated before, i.e. one reached again by playing pieces in a
+   different order, is looked up instead of rated again.
+
+   The key also mixes in the board size and a salt for the evaluator,
+   so one cache can be shared by several evaluators (or weightings of
+   one evaluator) without them seeing each other's scores. Like the
+   cache, not thread safe.
+*/
+public class CachingEvaluator implements BoardEvaluator {
+    private final BoardEvaluator evaluator;
+    private final EvaluationCache cache;
+    private final long salt;
+
+    // Default salts count up from Long.MIN_VALUE, away from small
+    // explicit ones; mix() is a bijection, so they stay distinct.
+    private static final AtomicLong nextSalt = new AtomicLong(Long.MIN_VALUE);
+
+
+    /**
+       Wraps the evaluator with a new cache of the given capacity.
+    */
+    public CachingEvaluator(BoardEvaluator evaluator, int capacity) {
+        this(evaluator, new EvaluationCache(capacity));
+    }
+
+    /**
+       Wraps the evaluator with the given cache, salted with a number no
+       other CachingEvaluator made this way gets, so two evaluators
+       sharing the cache (even two LameBrains of different weights)
+       never see each other's scores. To share scores between wrappers
+       of the same evaluator, give them the same explicit salt instead.
+    */
+    public CachingEvaluator(BoardEvaluator evaluator, EvaluationCache cache) {
+        this(evaluator, cache, nextSalt.getAndIncrement());
+    }
+
+    /**
+       Wraps the evaluator with the given cache, using salt to tell its
+       scores apart from those of other evaluators in the same cache.
+       The salt must differ for every evaluator that scores boards
+       differently -- the class alone is not enough, since instances
+       of one class may have different weights -- and should be the
+       same only for evaluators that are meant to share scores.
+    */
+    public CachingEvaluator(BoardEvaluator evaluator, EvaluationCache cache, long salt) {
+        this.evaluator = evaluator;
+        this.cache = cache;
+        this.salt = Zobrist.mix(salt);
+    }
+
+
+    public double rateBoard(Board board) {
+        long key = board.getHash() ^ salt
+                   ^ Zobrist.mix(((long)board.getWidth() << 32) | board.getHeight());
+        double score = cache.get(key);
+        if (score != score) {	// NaN -- not cached
+            score = evaluator.rateBoard(board);
+            cache.put(key, score);
+        }
+        return score;
+    }
+
+
+    /**
+       Returns the cache, i.e. to read its hit and miss counts.
+    */
+    public EvaluationCache getCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.*;
+
+
+/**
+   The cross-entropy method: candidates are drawn from a normal
+   distribution per weight, and after each generation the distribution
+   moves to the mean and spread of the best (elite) candidates. A
+   little extra noise is added to the spread each generation so the
+   search does not collapse onto one point too early.
+*/
+public class CrossEntropyOptimizer implements WeightOptimizer {
+    private final double[] mean, sigma;
+    private final int population, elite;
+    private final double noise;
+    private final SplittableRandom random;
+    private double[] best;
+    private double bestFitness = Double.NEGATIVE_INFINITY;
+
+
+    /**
+       Creates an optimizer starting around the given weights, each
+       with the given initial spread, drawing population candidates per
+       generation and keeping the best elite of them.
+    */
+    public CrossEntropyOptimizer(double[] start, double[] sigma,
+                                 int population, int elite, double noise, long seed) {
+        if (start.length != sigma.length)
+            throw new RuntimeException("start and sigma must be the same length");
+        if (elite < 1 || elite > population)
+            throw new RuntimeException("elite must be from 1 to the population");
+        this.mean = start.clone();
+        this.sigma = sigma.clone();
+        this.population = population;
+        this.elite = elite;
+        this.noise = noise;
+        this.random = new SplittableRandom(seed);
+        this.best = start.clone();
+    }
+
+
+    public double[][] ask() {
+        double[][] candidates = new double[population][mean.length];
+        for (int i = 0; i < population; i++)
+            for (int j = 0; j < mean.length; j++)
+                candidates[i][j] = mean[j] + sigma[j] * gaussian();
+        return candidates;
+    }
+
+
+    public void tell(double[][] candidates, double[] fitness) {
+        // the elite, best first
+        Integer[] order = new Integer[candidates.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(fitness[b], fitness[a]));
+        if (fitness[order[0]] > bestFitness) {
+            bestFitness = fitness[order[0]];
+            best = candidates[order[0]].clone();
+        }
+
+        int n = Math.min(elite, candidates.length);
+        for (int j = 0; j < mean.length; j++) {
+            double sum = 0;
+            for (int e = 0; e < n; e++)
+                sum += candidates[order[e]][j];
+            double m = sum / n;
+            double var = 0;
+            for (int e = 0; e < n; e++) {
+                double d = candidates[order[e]][j] - m;
+                var += d * d;
+            }
+            mean[j] = m;
+            sigma[j] = Math.sqrt(var / n) + noise;
+        }
+    }
+
+
+    public double[] getBest() {
+        return best.clone();
+    }
+
+
+    public double getBestFitness() {
+        return bestFitness;
+    }
+
+
+    /**
+       Returns the current mean of the search distribution.
+    */
+    public double[] getMean() {
+        return mean.clone();
+    }
+
+    // A standard normal sample, by the Box-Muller transform.
+    private double gaussian() {
+        double u = 1.0 - random.nextDouble();	// (0, 1]
+        double v = random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+    }
+}
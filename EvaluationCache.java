@@ -0,0 +1,138 @@
+import java.util.*;
+
+
+/**
+   A fixed-size table from 64-bit board keys to scores, for skipping
+   the evaluation of a board that has been rated before.
+
+   Open addressing over parallel long[]/double[] arrays: a key is looked
+   for in a short run of slots starting at the slot its bits pick. When
+   the run is full, put() evicts the entry in the first slot of the run.
+   The table never grows and get()/put() never allocate. Counts its
+   hits, misses and evictions. Not thread safe -- give each thread its
+   own cache.
+*/
+public final class EvaluationCache {
+    private static final int PROBES = 8;	// slots tried per key
+    private static final long EMPTY = 0;
+    private static final long ZERO_KEY = 0x8000000000000000L;	// stands in for key 0
+
+    private final long[] keys;
+    private final double[] values;
+    private final int mask;
+    private int size = 0;
+    private long hits = 0, misses = 0, evictions = 0;
+
+
+    /**
+       Creates a cache holding at most the given number of entries,
+       rounded up to a power of two.
+    */
+    public EvaluationCache(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30))
+            throw new RuntimeException("Bad EvaluationCache capacity: " + capacity);
+        int n = Integer.highestOneBit(capacity);
+        if (n < capacity)
+            n <<= 1;
+        n = Math.max(n, PROBES);
+        keys = new long[n];
+        values = new double[n];
+        mask = n - 1;
+    }
+
+
+    /**
+       Returns the score stored for the key, or NaN if there is none.
+    */
+    public double get(long key) {
+        if (key == EMPTY)
+            key = ZERO_KEY;
+        int slot = home(key);
+        for (int i = 0; i < PROBES; i++) {
+            long k = keys[(slot + i) & mask];
+            if (k == key) {
+                hits++;
+                return values[(slot + i) & mask];
+            }
+            if (k == EMPTY)
+                break;
+        }
+        misses++;
+        return Double.NaN;
+    }
+
+
+    /**
+       Stores the score for the key, replacing any score it had.
+    */
+    public void put(long key, double value) {
+        if (key == EMPTY)
+            key = ZERO_KEY;
+        int slot = home(key);
+        for (int i = 0; i < PROBES; i++) {
+            int s = (slot + i) & mask;
+            if (keys[s] == EMPTY) {
+                keys[s] = key;
+                values[s] = value;
+                size++;
+                return;
+            }
+            if (keys[s] == key) {
+                values[s] = value;
+                return;
+            }
+        }
+        // the run is full -- the first slot makes way
+        evictions++;
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    private int home(long key) {
+        return (int)(key ^ (key >>> 32)) & mask;
+    }
+
+
+    /**
+       Empties the cache. The counters are kept.
+    */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+
+    /**
+       Returns the number of entries in the cache.
+    */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+       Returns the most entries the cache can hold.
+    */
+    public int capacity() {
+        return keys.length;
+    }
+
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+
+    public String toString() {
+        return "EvaluationCache[size=" + size + "/" + keys.length + " hits=" + hits
+               + " misses=" + misses + " evictions=" + evictions + "]";
+    }
+}
@@ -1,6 +1,7 @@
 import java.awt.*;
 import javax.swing.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.awt.event.*;
 import javax.swing.event.*;
 
@@ -9,10 +10,93 @@ public class JBrainTetris extends JTetris {
     protected int oldCount = -1;
     protected boolean brainActive = true;
     protected Brain.Move targetMove;
+    private final Brain.Move move = new Brain.Move();	// reused for each piece
+
+    // The brain thinks on its own thread, so a slow brain does not
+    // hold up the Swing event thread. Until its move is ready, the
+    // piece follows a quick move from the fallback brain. A search
+    // still running when the next piece comes is interrupted, so the
+    // brain always works on the newest piece.
+    private final ExecutorService thinker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "JBrainTetris brain");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Brain fallback = new LameBrain();
+    private Future<Brain.Move> pending;	// the brain's move for piece pendingCount
+    private int pendingCount = -1;
+    private int fallbackCount = -1;	// the piece the fallback move is for
+    private BoardSnapshot lastSnapshot;	// shares unchanged rows with the next
+    private Board thinkBoard;	// used only on the brain's thread
 
     JBrainTetris(int width, int height) {
         super(width, height);
-        brain = new LameBrain();
+        brain = new BeamSearchBrain();
+    }
+
+
+    /**
+       The brain spends most of its time in place()/undo()/clearRows(),
+       so play on the bitmask board.
+    */
+    protected Board createBoard() {
+        return new BitBoard(WIDTH, HEIGHT + TOP_SPACE);
+    }
+
+
+    /**
+       Also tunes the brain to the speed: the faster the game, the
+       narrower and shallower a beam search, or the less time an
+       anytime search gets.
+    */
+    public void updateTimer() {
+        super.updateTimer();
+        if (brain instanceof BeamSearchBrain) {
+            double slow = 1.0 - ((double)speed.getValue())/speed.getMaximum();
+            BeamSearchBrain beam = (BeamSearchBrain)brain;
+            beam.setWidth(1 + (int)(slow * 15));
+            beam.setDepth(1 + (int)Math.round(slow * PREVIEW_SIZE));
+        }
+        else if (brain instanceof AnytimeBrain) {
+            // think for at most half a tick
+            ((AnytimeBrain)brain).setTimeLimit(Math.max(1, timer.getDelay() / 2));
+        }
+    }
+
+
+    /**
+       Adds the new piece, then starts the brain thinking about it on
+       its own thread, on a snapshot of the committed board.
+    */
+    public void addNewPiece() {
+        super.addNewPiece();
+        if (pending != null)
+            pending.cancel(true);	// interrupts a search still running
+        pending = null;
+        if (!gameOn || !brainActive || currentPiece == null)
+            return;
+
+        // snapshot the board without the new piece, then put it back
+        board.undo();
+        final BoardSnapshot snapshot = BoardSnapshot.of(board, lastSnapshot);
+        board.place(currentPiece, currentX, currentY);
+        lastSnapshot = snapshot;
+
+        final Piece piece = currentPiece;
+        final Piece[] upcoming = getPreview().clone();
+        final int limitHeight = board.getHeight();
+        pending = thinker.submit(() -> think(snapshot, piece, upcoming, limitHeight));
+        pendingCount = count;
+    }
+
+    // Runs on the brain's thread: copies the snapshot into the thread's
+    // own board, which the brain is then free to play on.
+    private Brain.Move think(BoardSnapshot snapshot, Piece piece,
+                             Piece[] upcoming, int limitHeight) {
+        if (thinkBoard == null)
+            thinkBoard = createBoard();
+        thinkBoard.copyFrom(snapshot.asBoard());
+        return brain.bestMove(thinkBoard, piece, upcoming, limitHeight, new Brain.Move());
     }
 
 
@@ -26,9 +110,18 @@ public class JBrainTetris extends JTetris {
         // if the brain is playing, get and do the next best move
         if (verb == DOWN && brainActive) {
             if (count != oldCount) {
-                targetMove = brain.bestMove(board, currentPiece,
-                                            board.getHeight(), null);
-                oldCount = count;
+                if (pending != null && pendingCount == count && pending.isDone()) {
+                    // the brain's move is in -- it stands for this piece
+                    Brain.Move thought = thoughtMove();
+                    if (thought != null || count != fallbackCount)
+                        targetMove = thought;	// null if it found no play
+                    oldCount = count;
+                }
+                if (count != oldCount && count != fallbackCount) {
+                    targetMove = fallback.bestMove(board, currentPiece,
+                                                   board.getHeight(), move);
+                    fallbackCount = count;
+                }
             }
             if (targetMove != null) {
                 if (targetMove.x < currentX)
@@ -42,9 +135,25 @@ public class JBrainTetris extends JTetris {
         super.tick(verb);
     }
 
+    // Returns the brain's finished move, or null if it failed or was
+    // cancelled, in which case the fallback move stays.
+    private Brain.Move thoughtMove() {
+        try {
+            return pending.get();
+        }
+        catch (CancellationException | InterruptedException | ExecutionException e) {
+            return null;
+        }
+    }
+
     public void stopGame() {
         super.stopGame();
+        if (pending != null)
+            pending.cancel(true);
+        pending = null;
+        lastSnapshot = null;
         oldCount = -1;
+        fallbackCount = -1;
     }
     public static void main(String[] args)
 
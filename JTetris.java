@@ -48,9 +48,13 @@ public class JTetris extends JComponent {
     // Is drawing optimized
     protected boolean DRAW_OPTIMIZE = false;
 
+    // How many upcoming pieces are dealt ahead of the current one
+    public static final int PREVIEW_SIZE = 3;
+
     // Board data structures
     protected Board board;
     protected Piece[] pieces;
+    protected Piece[] preview = new Piece[PREVIEW_SIZE];	// upcoming pieces, next first
 
 
     // The current piece in play or null
@@ -70,7 +74,7 @@ public class JTetris extends JComponent {
     protected boolean gameOn;	// true if we are playing
     protected int count;		// how many pieces played so far
     protected long startTime;	// used to measure elapsed time
-    protected Random random;	// the random generator for new pieces
+    protected PieceGenerator generator;	// picks the new pieces
 
 
     // Controls
@@ -90,8 +94,8 @@ public class JTetris extends JComponent {
         setPreferredSize(new Dimension(width, height));
         gameOn = false;
 
-        pieces = TetrisPiece.getPieces();
-        board = new TetrisBoard(WIDTH, HEIGHT + TOP_SPACE);
+        pieces = createPieceSet().getPieces();
+        board = createBoard();
 
 
         /*
@@ -185,13 +189,41 @@ public class JTetris extends JComponent {
         });
     }
 
+    /**
+       Creates an empty board for a new game. Subclasses may
+       override this to play on another Board implementation.
+    */
+    protected Board createBoard() {
+        return new TetrisBoard(WIDTH, HEIGHT + TOP_SPACE);
+    }
+
+
+    /**
+       Returns the set of pieces to play with. Subclasses may
+       override to play a variant such as PieceSet.polyominoes(5).
+    */
+    protected PieceSet createPieceSet() {
+        return PieceSet.standard();
+    }
+
+
+    /**
+       Returns the generator that picks the pieces for a game started
+       with the given seed. Subclasses may override this to use a
+       PieceGenerator.Bag or PieceGenerator.History instead.
+    */
+    protected PieceGenerator createGenerator(long seed) {
+        return new PieceGenerator.Uniform(pieces.length, seed);
+    }
+
+
     /**
        Sets the internal state and starts the timer
        so the game is happening.
     */
     public void startGame() {
         // cheap way to reset the board state
-        board = new TetrisBoard(WIDTH, HEIGHT + TOP_SPACE);
+        board = createBoard();
 
         // draw the new board state once
         repaint();
@@ -199,8 +231,10 @@ public class JTetris extends JComponent {
         count = 0;
         gameOn = true;
 
-        if (testMode) random = new Random(0);	// same seq every time
-        else random = new Random();	// diff seq each game
+        if (testMode) generator = createGenerator(0);	// same seq every time
+        else generator = createGenerator(System.nanoTime());	// diff seq each game
+        for (int i = 0; i < preview.length; i++)
+            preview[i] = pieces[generator.next()];
 
         enableButtons();
         timeLabel.setText(" ");
@@ -265,20 +299,33 @@ public class JTetris extends JComponent {
 
 
     /**
-       Selects the next piece to use using the random generator
-       set in startGame().
+       Selects the next piece to use: takes the first piece of the
+       preview, and deals a new piece onto its end from the piece
+       generator set in startGame().
     */
     public Piece pickNextPiece() {
         int pieceNum;
 
-        pieceNum = (int) (pieces.length * random.nextDouble());
+        pieceNum = generator.next();
 
-        Piece piece  = pieces[pieceNum];
+        Piece piece = preview[0];
+        System.arraycopy(preview, 1, preview, 0, preview.length - 1);
+        preview[preview.length - 1] = pieces[pieceNum];
 
         return(piece);
     }
 
 
+    /**
+       Returns the pieces that will come after the current piece,
+       the next one first. The array changes as pieces are dealt;
+       the caller should not modify it.
+    */
+    public Piece[] getPreview() {
+        return preview;
+    }
+
+
     /**
        Tries to add a new random at the top of the board.
        Ends the game if it's not possible.
@@ -9,9 +9,72 @@
  play with the lowest score. Undo() is used to back-out
  each play before trying the next. To experiment with writing your own
  brain -- just subclass off LameBrain and override rateBoard().
+
+ bestMove() and bestMoves() reuse scratch space kept in the brain, so
+ one LameBrain (or subclass) should only search on one thread at a
+ time; give each thread its own. rateBoard() keeps no state and may be
+ called from any number of threads at once, i.e. as the evaluator of
+ a ParallelBrain.
 */
 
-public class LameBrain implements Brain {
+public class LameBrain implements Brain, BoardEvaluator {
+    // rates the boards the search reaches -- by default rateBoard()
+    protected final BoardEvaluator evaluator;
+    // walks the plays of a piece
+    private final PlacementTable.Walk walk = new PlacementTable.Walk();
+    // holds the result of bestMove()
+    private final MoveBuffer best = new MoveBuffer(1);
+    // per thread scratch for rateBoard(), which may be called from
+    // several threads at once: { column heights, row widths }
+    private static final ThreadLocal<int[][]> scratch =
+        ThreadLocal.withInitial(() -> new int[][] { new int[0], new int[0] });
+
+
+    // the weights rateBoard() gives the max height, the average
+    // height and the holes
+    private final double maxHeightWeight, averageHeightWeight, holeWeight;
+
+
+    public LameBrain() {
+        this((BoardEvaluator)null);
+    }
+
+    /**
+       Creates a brain that rates boards with the given weights for the
+       max height, the average height and the holes, i.e. weights found
+       by BrainTuner.
+    */
+    public LameBrain(double maxHeightWeight, double averageHeightWeight, double holeWeight) {
+        this(maxHeightWeight, averageHeightWeight, holeWeight, null);
+    }
+
+    /**
+       Creates a brain that rates boards with the given evaluator
+       instead of rateBoard(), i.e. a CachingEvaluator. rateBoard()
+       keeps the default weights.
+    */
+    public LameBrain(BoardEvaluator evaluator) {
+        this(8, 40, 1.25, evaluator);	// the default weights
+    }
+
+    // A null evaluator means the brain's own rateBoard().
+    private LameBrain(double maxHeightWeight, double averageHeightWeight, double holeWeight,
+                      BoardEvaluator evaluator) {
+        this.maxHeightWeight = maxHeightWeight;
+        this.averageHeightWeight = averageHeightWeight;
+        this.holeWeight = holeWeight;
+        this.evaluator = (evaluator == null) ? this : evaluator;
+    }
+
+
+    /**
+       Returns the weights rateBoard() uses, as
+       { max height, average height, holes }.
+    */
+    public double[] getWeights() {
+        return new double[] { maxHeightWeight, averageHeightWeight, holeWeight };
+    }
+
     /**
        Given a piece and a board, returns a move object that represents
        the best play for that piece, or returns null if no play is possible.
@@ -21,58 +84,36 @@ public class LameBrain implements Brain {
                                Piece piece,
                                int limitHeight,
                                Brain.Move move) {
+        if (bestMoves(board, piece, limitHeight, best, 1) == 0)
+            return(null);	// could not find a play at all!
 
         // Allocate a move object if necessary
         if (move==null) move = new Brain.Move();
+        return best.get(0, move);
+    }
 
-        double bestScore = 1e20;
-        int bestX = 0;
-        int bestY = 0;
-        Piece bestPiece = null;
-        Piece current = piece;
-
-        // loop through all the rotations
-        do {
-            final int yBound = limitHeight - current.getHeight()+1;
-            final int xBound = board.getWidth() - current.getWidth()+1;
-
-            // For current rotation, try all the possible columns
-            for (int x = 0; x<xBound; x++) {
-                int y = board.dropHeight(current, x);
-                if (y<yBound) {	// piece does not stick up too far
-                    int result = board.place(current, x, y);
-                    if (result <= Board.PLACE_ROW_FILLED) {
-                        if (result == Board.PLACE_ROW_FILLED)
-                            board.clearRows();
-
-                        double score = rateBoard(board);
-
-                        if (score<bestScore) {
-                            bestScore = score;
-                            bestX = x;
-                            bestY = y;
-                            bestPiece = current;
-                        }
-                    }
-
-                    // back out that play, loop around for the next
-                    board.undo();
-                }
-            }
-
-            current = current.nextRotation();
-            // we're done if we've seen this piece before
-        } while (current != piece);
-
-        if (bestPiece == null)
-            return(null);	// could not find a play at all!
-        else {
-            move.x=bestX;
-            move.y=bestY;
-            move.piece=bestPiece;
-            move.score = bestScore;
-            return(move);
+
+    /**
+       Fills out with the best k plays for the piece, best first.
+       Plays are tried in the same order as always, so of two plays
+       with the same score the one tried first ranks higher.
+       See the Brain interface for details.
+    */
+    public int bestMoves(Board board,
+                         Piece piece,
+                         int limitHeight,
+                         MoveBuffer out,
+                         int k) {
+        out.reset(k);
+        walk.begin(board, piece, limitHeight);
+        while (walk.next()) {
+            if (walk.play())
+                out.offer(walk.getPiece(), walk.getX(), walk.getY(), evaluator.rateBoard(board));
+
+            // back out that play, loop around for the next
+            board.undo();
         }
+        return out.size();
     }
 
 
@@ -90,27 +131,37 @@ public class LameBrain implements Brain {
         int sumHeight = 0;
         int holes = 0;
 
-        // Count the holes, and sum up the heights
-        for (int x=0; x<width; x++) {
-            final int colHeight = board.getColumnHeight(x);
-            sumHeight += colHeight;
-
-            int y = colHeight - 2;	// addr of first possible hole
-
-            while (y>=0) {
-                if  (!board.getGrid(x,y)) {
-                    holes++;
-                }
-                y--;
-            }
+        // A board that tracks its features already knows both
+        BoardFeatures features = board.getFeatures();
+        if (features != null) {
+            sumHeight = features.getAggregateHeight();
+            holes = features.getHoles();
+        }
+        else {
+            // Otherwise read the heights and row widths in bulk. Every
+            // block is at or below the top of its column, so the holes
+            // are the column heights less the blocks.
+            int[][] arrays = scratch.get();
+            if (arrays[0].length < width || arrays[1].length < board.getHeight())
+                scratch.set(arrays = new int[][] { new int[width], new int[board.getHeight()] });
+            final int[] heights = arrays[0];
+            final int[] widths = arrays[1];
+            board.copyColumnHeights(heights);
+            final int rows = board.copyRowWidths(widths);
+            int blocks = 0;
+            for (int x=0; x<width; x++)
+                sumHeight += heights[x];
+            for (int y=0; y<rows; y++)
+                blocks += widths[y];
+            holes = sumHeight - blocks;
         }
 
         double avgHeight = ((double)sumHeight)/width;
 
         // Add up the counts to make an overall score
-        // The weights, 8, 40, etc., are just made up numbers that
-        // appear to work
-        return (8*maxHeight + 40*avgHeight + 1.25*holes);
+        // The default weights, 8, 40, etc., are just made up numbers
+        // that appear to work -- see BrainTuner for finding better ones
+        return (maxHeightWeight*maxHeight + averageHeightWeight*avgHeight + holeWeight*holes);
     }
 
 }
@@ -0,0 +1,107 @@
+/**
+ A LameBrain that looks one piece ahead.
+
+ Given the next piece from the preview, bestMove() first rates every
+ play of the current piece on its own, as LameBrain does, and keeps the
+ best few. For each of those it plays the piece, then tries every play
+ of the next piece, and rates the play of the current piece by the best
+ board reachable after both. Pruning with the one-piece score keeps the
+ search to a few hundred boards instead of the ~30 x 30 of a full
+ two-piece search.
+
+ Everything is played on the board passed in, with mark()/rollbackTo()
+ around the current piece and place()/undo() for the next, and the
+ kept plays go in a reused MoveBuffer, so a search does not allocate.
+*/
+public class LookaheadBrain extends LameBrain {
+    private int keep = 8;	// plays of the current piece searched deeper
+
+    private MoveBuffer top = new MoveBuffer(8);	// the best plays of the current piece
+    private final PlacementTable.Walk walk = new PlacementTable.Walk();	// the next piece's plays
+
+
+    public LookaheadBrain() {
+    }
+
+    public LookaheadBrain(BoardEvaluator evaluator) {
+        super(evaluator);
+    }
+
+
+    /**
+       Sets how many plays of the current piece, best first by their
+       one-piece score, are searched with the next piece.
+    */
+    public void setKeep(int keep) {
+        if (keep < 1)
+            throw new RuntimeException("LookaheadBrain must keep at least one play");
+        this.keep = keep;
+    }
+
+    public int getKeep() {
+        return keep;
+    }
+
+
+    /**
+       Given a piece, the preview of the pieces after it and a board,
+       returns the best play for the piece looking one piece ahead, or
+       null if no play is possible. With an empty preview this is the
+       same as LameBrain.bestMove().
+    */
+    public Brain.Move bestMove(Board board,
+                               Piece piece,
+                               Piece[] preview,
+                               int limitHeight,
+                               Brain.Move move) {
+        if (preview == null || preview.length == 0 || preview[0] == null)
+            return bestMove(board, piece, limitHeight, move);
+        if (top.capacity() < keep)
+            top = new MoveBuffer(keep);
+
+        // one piece: rate every play, keep the best few
+        final int count = bestMoves(board, piece, limitHeight, top, keep);
+        if (count == 0)
+            return(null);	// could not find a play at all!
+
+        // two pieces: play each kept move, then search the next piece
+        double bestScore = 1e20;
+        int best = 0;
+        for (int t = 0; t < count; t++) {
+            // asked to stop -- keep the best so far, once there is one
+            if (t > 0 && Thread.currentThread().isInterrupted())
+                break;
+            int mark = board.mark();
+            if (board.place(top.getPiece(t), top.getX(t), top.getY(t)) == Board.PLACE_ROW_FILLED)
+                board.clearRows();
+            double score = bestScore(board, preview[0], limitHeight);
+            board.rollbackTo(mark);
+
+            if (score<bestScore) {
+                bestScore = score;
+                best = t;
+            }
+        }
+
+        if (move==null) move = new Brain.Move();
+        top.get(best, move);
+        move.score = bestScore;
+        return(move);
+    }
+
+    // Returns the score of the best play of the piece on the board, or
+    // a score worse than any real board if the piece cannot be played.
+    private double bestScore(Board board, Piece piece, int limitHeight) {
+        double best = 1e19;
+        walk.begin(board, piece, limitHeight);
+        while (walk.next()) {
+            if (walk.play()) {
+                double score = evaluator.rateBoard(board);
+                if (score<best)
+                    best = score;
+            }
+            board.undo();
+        }
+        return best;
+    }
+}
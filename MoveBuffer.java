@@ -0,0 +1,118 @@
+/**
+   A reusable, fixed-capacity list of moves ranked best first (lowest
+   score first), filled by Brain.bestMoves(). The moves are kept in
+   parallel arrays rather than as Brain.Move objects, so filling the
+   buffer again and again creates no garbage.
+*/
+public final class MoveBuffer {
+    private final Piece[] pieces;
+    private final int[] xs, ys;
+    private final double[] scores;
+    private int size = 0;
+    private int limit;
+    private final Brain.Move scratch = new Brain.Move();
+
+
+    /**
+       Creates a buffer that can hold up to capacity moves.
+    */
+    public MoveBuffer(int capacity) {
+        if (capacity < 1)
+            throw new RuntimeException("MoveBuffer capacity must be at least 1");
+        pieces = new Piece[capacity];
+        xs = new int[capacity];
+        ys = new int[capacity];
+        scores = new double[capacity];
+        limit = capacity;
+    }
+
+
+    /**
+       Empties the buffer, ready to keep the best k moves offered.
+    */
+    public void reset(int k) {
+        if (k < 1 || k > pieces.length)
+            throw new RuntimeException("MoveBuffer can keep 1 to " + pieces.length + " moves, not " + k);
+        for (int i = 0; i < size; i++)
+            pieces[i] = null;
+        size = 0;
+        limit = k;
+    }
+
+
+    /**
+       Adds a move if it is among the best k so far, after any move
+       with the same score, dropping the worst move if the buffer is
+       full. Returns true if the move was kept.
+    */
+    public boolean offer(Piece piece, int x, int y, double score) {
+        int at = size;
+        while (at > 0 && score < scores[at - 1])
+            at--;
+        if (at >= limit)
+            return false;
+        int last = Math.min(size, limit - 1);
+        for (int j = last; j > at; j--) {
+            pieces[j] = pieces[j - 1];
+            xs[j] = xs[j - 1];
+            ys[j] = ys[j - 1];
+            scores[j] = scores[j - 1];
+        }
+        pieces[at] = piece;
+        xs[at] = x;
+        ys[at] = y;
+        scores[at] = score;
+        if (size < limit)
+            size++;
+        return true;
+    }
+
+
+    /**
+       Returns the number of moves in the buffer.
+    */
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return pieces.length;
+    }
+
+    public Piece getPiece(int i) {
+        return pieces[i];
+    }
+
+    public int getX(int i) {
+        return xs[i];
+    }
+
+    public int getY(int i) {
+        return ys[i];
+    }
+
+    public double getScore(int i) {
+        return scores[i];
+    }
+
+
+    /**
+       Copies move i into the given move object, and returns it.
+    */
+    public Brain.Move get(int i, Brain.Move move) {
+        move.piece = pieces[i];
+        move.x = xs[i];
+        move.y = ys[i];
+        move.score = scores[i];
+        return move;
+    }
+
+
+    /**
+       Returns a Move owned by the buffer, for a brain to pass to
+       bestMove() without allocating. Its contents change on each use.
+    */
+    Brain.Move scratchMove() {
+        return scratch;
+    }
+}
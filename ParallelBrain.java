@@ -0,0 +1,162 @@
+import java.util.concurrent.*;
+
+
+/**
+   A Brain that tries the (rotation, x) candidates for a piece in
+   parallel. The candidates from the piece's PlacementTable are split
+   into one chunk per thread of a fork-join pool; each chunk plays its
+   candidates on its own copy of the board and rates them with the
+   evaluator, and the chunk results are reduced to the lowest score.
+
+   Picks exactly the move LameBrain would with the same evaluator:
+   candidates are taken in the same order, and a tie goes to the
+   earliest candidate. The board copies are kept and refilled on each
+   call. One ParallelBrain should only be used by one thread at a
+   time; the evaluator is called from several threads at once.
+*/
+public class ParallelBrain implements Brain {
+    private final BoardEvaluator evaluator;
+    private final ForkJoinPool pool;
+    private Chunk[] chunks = new Chunk[0];
+
+
+    /**
+       Creates a brain that rates boards like LameBrain, on the
+       common fork-join pool.
+    */
+    public ParallelBrain() {
+        this(new LameBrain());
+    }
+
+    public ParallelBrain(BoardEvaluator evaluator) {
+        this(evaluator, ForkJoinPool.commonPool());
+    }
+
+    public ParallelBrain(BoardEvaluator evaluator, ForkJoinPool pool) {
+        this.evaluator = evaluator;
+        this.pool = pool;
+    }
+
+
+    /**
+       Given a piece and a board, returns a move object that represents
+       the best play for that piece, or returns null if no play is possible.
+       See the Brain interface for details.
+    */
+    public Brain.Move bestMove(Board board,
+                               Piece piece,
+                               int limitHeight,
+                               Brain.Move move) {
+        PlacementTable table = PlacementTable.forPiece(piece, board.getWidth());
+        final int start = table.getStart(piece);
+        if (start < 0)
+            return(null);
+        final int n = table.getTypeEnd(start) - table.getTypeBegin(start);
+
+        // each chunk walks its share of the n placements
+        final int count = Math.min(n, Math.max(1, pool.getParallelism()));
+        ensureChunks(board, count);
+        for (int c = 0; c < count; c++) {
+            Chunk chunk = chunks[c];
+            chunk.reinitialize();
+            chunk.source = board;
+            chunk.piece = piece;
+            chunk.from = (int)((long)n * c / count);
+            chunk.to = (int)((long)n * (c + 1) / count);
+            chunk.limitHeight = limitHeight;
+        }
+
+        for (int c = 1; c < count; c++)
+            pool.execute(chunks[c]);
+        chunks[0].invoke();	// the calling thread does a share too
+        for (int c = 1; c < count; c++)
+            chunks[c].join();
+
+        // the chunks are in candidate order, so a strict < keeps the
+        // earliest of equal scores
+        Chunk best = null;
+        for (int c = 0; c < count; c++) {
+            chunks[c].source = null;
+            if (chunks[c].bestPiece != null
+                && (best == null || chunks[c].bestScore < best.bestScore))
+                best = chunks[c];
+        }
+
+        if (best == null)
+            return(null);	// could not find a play at all!
+        if (move == null) move = new Brain.Move();
+        move.x = best.bestX;
+        move.y = best.bestY;
+        move.piece = best.bestPiece;
+        move.score = best.bestScore;
+        return(move);
+    }
+
+
+    /**
+       Returns a new scratch board for a chunk to play on, by default
+       board.newBoard().
+    */
+    protected Board createBoard(Board board) {
+        return board.newBoard();
+    }
+
+    // Makes sure there are count chunks with scratch boards like board.
+    private void ensureChunks(Board board, int count) {
+        if (chunks.length < count) {
+            Chunk[] more = new Chunk[count];
+            System.arraycopy(chunks, 0, more, 0, chunks.length);
+            for (int c = chunks.length; c < count; c++)
+                more[c] = new Chunk();
+            chunks = more;
+        }
+        for (int c = 0; c < count; c++) {
+            Board scratch = chunks[c].board;
+            if (scratch == null || scratch.getClass() != board.getClass()
+                || scratch.getWidth() != board.getWidth()
+                || scratch.getHeight() != board.getHeight())
+                chunks[c].board = createBoard(board);
+        }
+    }
+
+
+    /**
+       Plays candidates from..to-1 on its own board, and keeps the best.
+    */
+    private final class Chunk extends RecursiveAction {
+        Board board;
+        final PlacementTable.Walk walk = new PlacementTable.Walk();
+
+        // the job, set before each run
+        Board source;
+        Piece piece;
+        int from, to, limitHeight;
+
+        // the result
+        double bestScore;
+        int bestX, bestY;
+        Piece bestPiece;
+
+        protected void compute() {
+            board.copyFrom(source);
+            bestScore = 1e20;
+            bestPiece = null;
+
+            walk.begin(board, piece, limitHeight);
+            walk.range(from, to);
+            while (walk.next()) {
+                if (walk.play()) {
+                    double score = evaluator.rateBoard(board);
+
+                    if (score<bestScore) {
+                        bestScore = score;
+                        bestX = walk.getX();
+                        bestY = walk.getY();
+                        bestPiece = walk.getPiece();
+                    }
+                }
+                board.undo();
+            }
+        }
+    }
+}
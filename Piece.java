@@ -1,5 +1,4 @@
 import java.awt.*;
-import java.util.*;
 
 /**
    An immutable representation of a tetris piece in a particular rotation.
@@ -46,6 +45,21 @@ public abstract class Piece {
     public abstract Point[] getBody();
 
 
+    /**
+       Returns the x coordinates of the body blocks, so the board and
+       brains can walk the body without java.awt.Point objects.
+       The caller should not modify this array.
+    */
+    public abstract int[] getBodyX();
+
+
+    /**
+       Returns the y coordinates of the body blocks, in the same order
+       as getBodyX(). The caller should not modify this array.
+    */
+    public abstract int[] getBodyY();
+
+
     /**
        Returns a pointer to the piece's skirt. For each x value
        across the piece, the skirt gives the lowest y value in the body.
@@ -55,6 +69,17 @@ public abstract class Piece {
     public abstract int[] getSkirt();
 
 
+    /**
+       Returns the rows of the piece as bitmasks shifted left by x:
+       element y of the array has bit (x + px) set for each block
+       (px, y) of the body. Defined for x from 0 to 32 - getWidth().
+       These are precomputed, so a bitmask board can test and stamp a
+       piece with a few AND/OR operations.
+       The caller should not modify this array.
+    */
+    public abstract int[] getRowMasks(int x);
+
+
     /**
        Returns a piece that is 90 degrees counter-clockwise
        rotated from the receiver.
@@ -69,6 +94,46 @@ public abstract class Piece {
     }
 
 
+    /**
+       Returns the PieceSet this piece belongs to, or null for a piece
+       made outside of any set.
+    */
+    public abstract PieceSet getPieceSet();
+
+
+    /**
+       Returns a small dense id for this (piece type, rotation) pair,
+       from 0 to one less than the number of distinct rotations of all
+       the pieces in its PieceSet, so pieces can index flat arrays.
+       Returns -1 for a piece made outside of any set.
+    */
+    public abstract int getId();
+
+
+    /**
+       Returns the index in its set's getPieces() of the piece this is
+       a rotation of, or -1 for a piece made outside of any set.
+    */
+    public abstract int getType();
+
+
+    /**
+       Returns how many nextRotation() steps this rotation is from the
+       first rotation of its piece type, or -1 for a piece made outside
+       of any set.
+    */
+    public abstract int getRotation();
+
+
+    /**
+       Returns a canonical 64-bit fingerprint of the body: two pieces
+       have the same fingerprint if their bodies contain the same points.
+       For pieces that fit in 8x8 blocks it is exact -- bit (8*y + x)
+       set for each block (x, y).
+    */
+    public abstract long getFingerprint();
+
+
     /**
        Returns true if two pieces are the same --
        their bodies contain the same points.
@@ -82,28 +147,13 @@ public abstract class Piece {
 
     /**
        Given a string of x,y pairs., i.e. ("0 0  0 1  0 2  1 0"), parses
-       the points into a Point[] array.
-       (Provided code)
+       the points into a Point[] array, moved so the lowest x and y are 0.
     */
     protected static Point[] parsePoints(String string) {
-        // could use Arraylist here, but use vector so works on Java 1.1
-        Vector points = new Vector();
-        StringTokenizer tok = new StringTokenizer(string);
-        try {
-            while(tok.hasMoreTokens()) {
-                int x = Integer.parseInt(tok.nextToken());
-                int y = Integer.parseInt(tok.nextToken());
-
-                points.addElement(new Point(x, y));
-            }
-        }
-        catch (NumberFormatException e) {
-            throw new RuntimeException("Could not parse x,y string:" + string);
-        }
-
-        // Make an array out of the Vector
-        Point[] array = new Point[points.size()];
-        points.copyInto(array);
+        int[][] body = PieceSet.parseBody(string);
+        Point[] array = new Point[body[0].length];
+        for (int i = 0; i < array.length; i++)
+            array[i] = new Point(body[0][i], body[1][i]);
         return(array);
     }
 }
@@ -0,0 +1,156 @@
+import java.util.*;
+
+
+/**
+   Picks the sequence of pieces for a game, as indexes into the
+   array of pieces being played with (0 to count-1).
+
+   Each generator owns its own SplittableRandom, so it needs no
+   locking, and the same seed always gives the same sequence.
+   split() hands back an independent generator of the same kind, so
+   one master seed can be split into a reproducible stream for every
+   game or worker thread.
+*/
+public interface PieceGenerator {
+
+    /**
+       Returns the index of the next piece.
+    */
+    public int next();
+
+
+    /**
+       Returns a new generator of the same kind and piece count whose
+       sequence is independent of this one's. Advances this generator.
+    */
+    public PieceGenerator split();
+
+
+    /**
+       Picks every piece independently and uniformly at random -- the
+       way JTetris has always picked pieces.
+    */
+    public static class Uniform implements PieceGenerator {
+        private final int count;
+        private final SplittableRandom random;
+
+        public Uniform(int count, long seed) {
+            this(count, new SplittableRandom(seed));
+        }
+
+        private Uniform(int count, SplittableRandom random) {
+            if (count <= 0)
+                throw new RuntimeException("PieceGenerator needs at least one piece");
+            this.count = count;
+            this.random = random;
+        }
+
+        public int next() {
+            return random.nextInt(count);
+        }
+
+        public PieceGenerator split() {
+            return new Uniform(count, random.split());
+        }
+    }
+
+
+    /**
+       Deals the pieces from a shuffled bag holding one of each,
+       refilling the bag when it is empty (the "7-bag" for the standard
+       pieces). No piece can be missing for long, and no piece can come
+       up more than twice in a row.
+    */
+    public static class Bag implements PieceGenerator {
+        private final SplittableRandom random;
+        private final int[] bag;
+        private int left = 0;	// pieces not yet dealt from the bag
+
+        public Bag(int count, long seed) {
+            this(count, new SplittableRandom(seed));
+        }
+
+        private Bag(int count, SplittableRandom random) {
+            if (count <= 0)
+                throw new RuntimeException("PieceGenerator needs at least one piece");
+            this.random = random;
+            bag = new int[count];
+            for (int i = 0; i < count; i++)
+                bag[i] = i;
+        }
+
+        public int next() {
+            if (left == 0)
+                left = bag.length;
+            // Fisher-Yates, one step per piece dealt
+            int i = random.nextInt(left);
+            int piece = bag[i];
+            bag[i] = bag[left - 1];
+            bag[left - 1] = piece;
+            left--;
+            return piece;
+        }
+
+        public PieceGenerator split() {
+            return new Bag(bag.length, random.split());
+        }
+    }
+
+
+    /**
+       Remembers the last few pieces dealt, and rerolls a piece that is
+       among them a few times before giving up and taking it. Repeats
+       become rare without the sequence being as regular as a bag.
+    */
+    public static class History implements PieceGenerator {
+        private final int count;
+        private final SplittableRandom random;
+        private final int[] history;	// the last pieces, as a ring
+        private final int rolls;
+        private int oldest = 0;
+
+        /**
+           Creates a generator remembering 4 pieces and rolling up to
+           4 times.
+        */
+        public History(int count, long seed) {
+            this(count, 4, 4, new SplittableRandom(seed));
+        }
+
+        public History(int count, int historySize, int rolls, long seed) {
+            this(count, historySize, rolls, new SplittableRandom(seed));
+        }
+
+        private History(int count, int historySize, int rolls, SplittableRandom random) {
+            if (count <= 0)
+                throw new RuntimeException("PieceGenerator needs at least one piece");
+            if (historySize <= 0 || rolls <= 0)
+                throw new RuntimeException("History size and rolls must be positive");
+            this.count = count;
+            this.rolls = rolls;
+            this.random = random;
+            history = new int[historySize];
+            Arrays.fill(history, -1);
+        }
+
+        public int next() {
+            int piece = random.nextInt(count);
+            for (int roll = 1; roll < rolls && remembered(piece); roll++)
+                piece = random.nextInt(count);
+            history[oldest] = piece;
+            oldest = (oldest + 1) % history.length;
+            return piece;
+        }
+
+        private boolean remembered(int piece) {
+            for (int i = 0; i < history.length; i++)
+                if (history[i] == piece)
+                    return true;
+            return false;
+        }
+
+        public PieceGenerator split() {
+            return new History(count, history.length, rolls, random.split());
+        }
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+   A set of pieces to play with -- the standard seven tetrominoes, a
+   generated set of polyominoes such as the pentominoes, or pieces read
+   from a file.
+
+   Building a set works out every rotation of every piece, with its
+   skirt and row masks, once. Sets are immutable and cached, so every
+   game that asks for the same set shares the same pieces, and each set
+   keeps its own placement tables. Piece ids, types and rotations
+   (Piece.getId() and friends) count from 0 within each set.
+*/
+public final class PieceSet {
+    private static final ConcurrentHashMap<Integer, PieceSet> polyominoSets =
+        new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, PieceSet> fileSets =
+        new ConcurrentHashMap<>();
+
+    private final String name;
+    private final Piece[] pieces;	// the first rotation of each piece
+    private final Piece[] byId;
+    private final ConcurrentHashMap<Integer, PlacementTable> tables =
+        new ConcurrentHashMap<>();
+
+
+    /**
+       Builds a set from piece bodies, one per string, each written as
+       x,y pairs, i.e. "0 0  0 1  0 2  1 0".
+    */
+    private PieceSet(String name, List<String> bodies) {
+        this.name = name;
+        pieces = new Piece[bodies.size()];
+        ArrayList<Piece> all = new ArrayList<>();
+        for (int t = 0; t < pieces.length; t++) {
+            int[][] body = parseBody(bodies.get(t));
+            TetrisPiece first = TetrisPiece.createRotations(body[0], body[1]);
+            pieces[t] = first;
+
+            TetrisPiece current = first;
+            int r = 0;
+            do {
+                current.setIds(this, all.size(), t, r++);
+                all.add(current);
+                current = (TetrisPiece)current.nextRotation();
+            } while (current != first);
+        }
+        byId = all.toArray(new Piece[all.size()]);
+    }
+
+
+    /**
+       Returns the seven standard tetris pieces, in the order of
+       Piece.pieceStrings.
+    */
+    public static PieceSet standard() {
+        return Standard.SET;
+    }
+
+    // Built the first time standard() is called; the class
+    // initialization makes it safely visible to every thread.
+    private static final class Standard {
+        static final PieceSet SET =
+            new PieceSet("standard", Arrays.asList(Piece.pieceStrings));
+    }
+
+
+    /**
+       Returns every one-sided polyomino of the given number of blocks:
+       each shape appears once however it is rotated, but mirror images
+       are different pieces, as with the L and J tetrominoes. For example
+       polyominoes(5) gives the 18 one-sided pentominoes. Sizes from 1
+       to 8 are supported. The set is generated once and cached.
+    */
+    public static PieceSet polyominoes(int size) {
+        if (size < 1 || size > 8)
+            throw new RuntimeException("Polyomino size must be from 1 to 8: " + size);
+        return polyominoSets.computeIfAbsent(size, PieceSet::generate);
+    }
+
+
+    /**
+       Reads a set from a file with one piece per line, written as x,y
+       pairs like Piece.pieceStrings. Blank lines and lines starting with
+       # are ignored. Each file is read once and then cached.
+    */
+    public static PieceSet load(String filename) {
+        String key = new File(filename).getAbsolutePath();
+        return fileSets.computeIfAbsent(key, k -> {
+            try {
+                return parse(filename, Files.readAllLines(Paths.get(k)));
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Could not read piece file:" + filename);
+            }
+        });
+    }
+
+
+    /**
+       Builds a set from lines in the load() file format. Not cached.
+    */
+    public static PieceSet parse(String name, List<String> lines) {
+        ArrayList<String> bodies = new ArrayList<>();
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.length() > 0 && !trimmed.startsWith("#"))
+                bodies.add(trimmed);
+        }
+        if (bodies.isEmpty())
+            throw new RuntimeException("No pieces in " + name);
+        return new PieceSet(name, bodies);
+    }
+
+
+    /**
+       Parses a string of x,y pairs, i.e. "0 0  0 1  0 2  1 0", into
+       the x and y coordinates of a body, moved so that the lowest x
+       and y are 0. Returns { xs, ys }.
+    */
+    static int[][] parseBody(String string) {
+        String trimmed = string.trim();
+        String[] tokens = trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+        if (tokens.length == 0 || tokens.length % 2 != 0)
+            throw new RuntimeException("Could not parse x,y string:" + string);
+
+        int n = tokens.length / 2;
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        try {
+            for (int i = 0; i < n; i++) {
+                xs[i] = Integer.parseInt(tokens[2 * i]);
+                ys[i] = Integer.parseInt(tokens[2 * i + 1]);
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new RuntimeException("Could not parse x,y string:" + string);
+        }
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            xs[i] -= minX;
+            ys[i] -= minY;
+            // rotations make pieces as wide as they are tall
+            if (xs[i] >= BitBoard.MAX_WIDTH || ys[i] >= BitBoard.MAX_WIDTH)
+                throw new RuntimeException("Piece too big:" + string);
+        }
+        return new int[][] { xs, ys };
+    }
+
+
+    // Grows the polyominoes one block at a time. Each shape is kept as
+    // a bitmask, bit (8*y + x) per block, moved to the origin; the
+    // smallest mask over its four rotations identifies the shape.
+    private static PieceSet generate(int size) {
+        TreeSet<Long> shapes = new TreeSet<>();
+        shapes.add(1L);
+        for (int n = 1; n < size; n++) {
+            TreeSet<Long> grown = new TreeSet<>();
+            for (long shape : shapes) {
+                for (int cell = 0; cell < 64; cell++) {
+                    if ((shape & (1L << cell)) == 0)
+                        continue;
+                    int x = cell % 8, y = cell / 8;
+                    grow(shape, x + 1, y, grown);
+                    grow(shape, x - 1, y, grown);
+                    grow(shape, x, y + 1, grown);
+                    grow(shape, x, y - 1, grown);
+                }
+            }
+            shapes = grown;
+        }
+
+        ArrayList<String> bodies = new ArrayList<>();
+        for (long shape : shapes) {
+            StringBuilder body = new StringBuilder();
+            for (int cell = 0; cell < 64; cell++)
+                if ((shape & (1L << cell)) != 0)
+                    body.append(cell % 8).append(' ').append(cell / 8).append("  ");
+            bodies.add(body.toString());
+        }
+        return new PieceSet(size + "-ominoes", bodies);
+    }
+
+    // Adds block (x, y) to the shape, and the resulting shape to the set.
+    // A shape one block short of at most 8 is at most 7 wide and tall,
+    // so the shifts below cannot push a block off the 8x8 mask.
+    private static void grow(long shape, int x, int y, Set<Long> out) {
+        if (x < 0) {	// shift everything right a column
+            long moved = 0;
+            for (int cell = 0; cell < 64; cell++)
+                if ((shape & (1L << cell)) != 0)
+                    moved |= 1L << (cell + 1);
+            shape = moved;
+            x = 0;
+        }
+        if (y < 0) {	// and up a row
+            shape <<= 8;
+            y = 0;
+        }
+        if (x >= 8 || y >= 8 || (shape & (1L << (8 * y + x))) != 0)
+            return;
+        out.add(canonical(shape | (1L << (8 * y + x))));
+    }
+
+    // The smallest of the shape's rotations, each moved to the origin.
+    private static long canonical(long shape) {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < 4; r++) {
+            int height = 0;
+            for (int cell = 0; cell < 64; cell++)
+                if ((shape & (1L << cell)) != 0)
+                    height = Math.max(height, cell / 8 + 1);
+            long rotated = 0;
+            for (int cell = 0; cell < 64; cell++)
+                if ((shape & (1L << cell)) != 0)
+                    rotated |= 1L << (8 * (cell % 8) + (height - 1 - cell / 8));
+            shape = rotated;
+            best = Math.min(best, shape);
+        }
+        return best;
+    }
+
+
+    /**
+       Returns the name of the set -- "standard", the file it was read
+       from, or i.e. "5-ominoes".
+    */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+       Returns an array containing the first rotation of each piece
+       in the set. The caller should not modify this array.
+    */
+    public Piece[] getPieces() {
+        return pieces;
+    }
+
+
+    /**
+       Returns the number of distinct piece ids, i.e. the total
+       number of rotations of all the pieces in the set.
+    */
+    public int getPieceCount() {
+        return byId.length;
+    }
+
+
+    /**
+       Returns the piece (rotation) with the given id.
+    */
+    public Piece getPiece(int id) {
+        return byId[id];
+    }
+
+
+    /**
+       Returns the placement table for this set on a board of the given
+       width, building it the first time it is asked for.
+    */
+    public PlacementTable getPlacementTable(int width) {
+        PlacementTable table = tables.get(width);	// no lambda on the common path
+        if (table == null)
+            table = tables.computeIfAbsent(width, w -> PlacementTable.of(pieces, w));
+        return table;
+    }
+}
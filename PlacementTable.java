@@ -0,0 +1,345 @@
+import java.util.*;
+
+
+/**
+   Lists every distinct (rotation, x) placement of every piece on a
+   board of a given width, in flat arrays. A brain can then walk the
+   candidates for a piece with an index instead of recomputing the
+   x bounds and following the nextRotation() list, and rotations with
+   identical bodies appear only once.
+
+   Placements are grouped by piece type, and within a type by
+   rotation in nextRotation() order, then by increasing x -- the order
+   LameBrain has always tried them in. Tables are immutable, and
+   each PieceSet shares one table between all games of a width.
+*/
+public final class PlacementTable {
+    private final int width;
+    private final Piece[] rotations;	// the distinct rotations
+    private final int[] rotation;	// per placement, index into rotations
+    private final int[] xs;	// per placement, the x
+    private final int[] typeBegin, typeEnd;	// per placement, its type's range
+    private final int[] rotationStart;	// per rotation, where its walk starts
+    private final PieceSet set;	// the set all the pieces are from, or null
+    private final int[] startById;	// rotationStart by Piece.getId() in set
+
+
+    /**
+       Returns the shared table for the standard pieces on a board of
+       the given width, building it the first time it is asked for.
+       Same as PieceSet.standard().getPlacementTable(width).
+    */
+    public static PlacementTable forWidth(int width) {
+        return PieceSet.standard().getPlacementTable(width);
+    }
+
+
+    /**
+       Returns the shared table of the piece's set for the given width,
+       or a one-off table for a piece that is not in any set.
+    */
+    public static PlacementTable forPiece(Piece piece, int width) {
+        PieceSet set = piece.getPieceSet();
+        if (set == null)
+            return new PlacementTable(new Piece[] { piece }, width);
+        return set.getPlacementTable(width);
+    }
+
+
+    /**
+       Builds a table for the given pieces (first rotations, as from
+       getPieces()) on a board of the given width. Not cached --
+       PieceSet.getPlacementTable() keeps the table for each set.
+    */
+    public static PlacementTable of(Piece[] pieces, int width) {
+        return new PlacementTable(pieces, width);
+    }
+
+
+    private PlacementTable(Piece[] pieces, int width) {
+        this.width = width;
+        ArrayList<Piece> distinct = new ArrayList<>();
+        int[] typeRotations = new int[pieces.length + 1];	// start of each type in distinct
+        ArrayList<Piece> all = new ArrayList<>();	// every rotation, with its
+        ArrayList<Integer> allRotation = new ArrayList<>();	// index in distinct
+        PieceSet common = (pieces.length > 0) ? pieces[0].getPieceSet() : null;
+        int count = 0;
+        for (int t = 0; t < pieces.length; t++) {
+            Piece first = pieces[t];
+            int typeStart = distinct.size();
+            typeRotations[t] = typeStart;
+            Piece current = first;
+            do {
+                int seen = -1;
+                for (int i = typeStart; i < distinct.size(); i++)
+                    if (distinct.get(i).equals(current))
+                        seen = i;
+                if (seen < 0) {
+                    seen = distinct.size();
+                    distinct.add(current);
+                    count += Math.max(0, width - current.getWidth() + 1);
+                }
+                all.add(current);
+                allRotation.add(seen);
+                if (current.getPieceSet() != common)
+                    common = null;
+                current = current.nextRotation();
+            } while (current != first);
+        }
+        typeRotations[pieces.length] = distinct.size();
+
+        rotations = distinct.toArray(new Piece[distinct.size()]);
+        rotation = new int[count];
+        xs = new int[count];
+        typeBegin = new int[count];
+        typeEnd = new int[count];
+        rotationStart = new int[rotations.length];
+        int i = 0;
+        for (int t = 0; t < pieces.length; t++) {
+            int begin = i;
+            for (int r = typeRotations[t]; r < typeRotations[t + 1]; r++) {
+                rotationStart[r] = i;
+                int xBound = width - rotations[r].getWidth() + 1;
+                for (int x = 0; x < xBound; x++) {
+                    rotation[i] = r;
+                    xs[i] = x;
+                    i++;
+                }
+            }
+            Arrays.fill(typeBegin, begin, i, begin);
+            Arrays.fill(typeEnd, begin, i, i);
+
+            // a rotation too wide for the board starts at the next
+            // rotation that fits, wrapping around the type
+            for (int r = typeRotations[t]; r < typeRotations[t + 1]; r++) {
+                if (begin == i)
+                    rotationStart[r] = -1;	// no rotation of the type fits
+                else if (rotationStart[r] == i)
+                    rotationStart[r] = begin;
+            }
+        }
+
+        // pieces of the set are looked up by id, not by a scan
+        set = common;
+        if (set == null) {
+            startById = null;
+        } else {
+            int ids = 0;
+            for (Piece piece : all)
+                ids = Math.max(ids, piece.getId() + 1);
+            startById = new int[ids];
+            Arrays.fill(startById, -1);
+            for (int n = 0; n < all.size(); n++)
+                startById[all.get(n).getId()] = rotationStart[allRotation.get(n)];
+        }
+    }
+
+
+    /**
+       Returns the board width this table was built for.
+    */
+    public int getWidth() {
+        return width;
+    }
+
+
+    /**
+       Returns the total number of placements in the table.
+    */
+    public int size() {
+        return xs.length;
+    }
+
+
+    /**
+       Returns the piece rotation of placement i.
+    */
+    public Piece getPiece(int i) {
+        return rotations[rotation[i]];
+    }
+
+
+    /**
+       Returns the x of placement i.
+    */
+    public int getX(int i) {
+        return xs[i];
+    }
+
+
+    /**
+       Returns the index of the first placement of the same piece type
+       as placement i.
+    */
+    public int getTypeBegin(int i) {
+        return typeBegin[i];
+    }
+
+
+    /**
+       Returns one past the index of the last placement of the same
+       piece type as placement i.
+    */
+    public int getTypeEnd(int i) {
+        return typeEnd[i];
+    }
+
+
+    /**
+       Returns the index of the first placement of the given rotation
+       (or of the identical rotation that replaced it). If that rotation
+       does not fit across the board, returns the first placement of the
+       next one in nextRotation() order that does. Returns -1 if the
+       piece is not in the table or no rotation of it fits. O(1) for a
+       piece of the set the table was built from.
+    */
+    public int getStart(Piece piece) {
+        if (set != null && piece.getPieceSet() == set) {
+            int id = piece.getId();
+            return (id < startById.length) ? startById[id] : -1;
+        }
+        for (int r = 0; r < rotations.length; r++) {
+            if (rotations[r] == piece || rotations[r].equals(piece))
+                return rotationStart[r];
+        }
+        return -1;
+    }
+
+
+    /**
+       A reusable walk over the plays of one piece on a board. Every
+       brain tries plays through a Walk, so they all see them in the
+       same order -- the piece's own rotation first, wrapping around the
+       others of its type, each by increasing x, as LameBrain always has
+       -- and all skip the same plays that would stick up past the
+       limit height. Each rotation's drop heights are computed once.
+
+       <pre>
+       walk.begin(board, piece, limitHeight);
+       while (walk.next()) {
+           if (walk.play())
+               ... rate the board ...
+           board.undo();
+       }
+       </pre>
+
+       A walk holds scratch arrays, so it should be used by one thread
+       at a time; a search that recurses needs one walk per level.
+    */
+    public static final class Walk {
+        private int[] drops = new int[0];
+        private Board board;
+        private PlacementTable table;
+        private int limitHeight;
+        private int start, begin, end, n, to;
+
+        // the current play
+        private Piece current;
+        private int yBound;
+        private int index, x, y;
+
+
+        /**
+           Starts a walk over every play of the piece on the board, and
+           returns how many placements it will consider (0 if no
+           rotation fits across the board).
+        */
+        public int begin(Board board, Piece piece, int limitHeight) {
+            this.board = board;
+            this.limitHeight = limitHeight;
+            table = PlacementTable.forPiece(piece, board.getWidth());
+            if (drops.length < board.getWidth())
+                drops = new int[board.getWidth()];
+            current = null;
+            start = table.getStart(piece);
+            if (start < 0) {
+                n = to = 0;
+                return 0;
+            }
+            begin = table.getTypeBegin(start);
+            end = table.getTypeEnd(start);
+            n = 0;
+            to = end - begin;
+            return to;
+        }
+
+
+        /**
+           Limits the walk to the placements from to to-1 of those
+           counted by begin(), i.e. for one share of a parallel search.
+        */
+        public void range(int from, int to) {
+            n = from;
+            this.to = to;
+        }
+
+
+        /**
+           Moves to the next play whose piece comes to rest below the
+           limit height, and returns false when there are no more.
+        */
+        public boolean next() {
+            while (n < to) {
+                int i = start + n++;
+                if (i >= end)
+                    i -= end - begin;
+
+                // new rotation -- compute its drop heights once
+                if (table.getPiece(i) != current) {
+                    current = table.getPiece(i);
+                    yBound = limitHeight - current.getHeight()+1;
+                    board.dropHeights(current, drops);
+                }
+
+                int px = table.getX(i);
+                int py = drops[px];
+                if (py<yBound) {	// piece does not stick up too far
+                    index = i;
+                    x = px;
+                    y = py;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+
+        /**
+           Places the current play on the board and clears any rows it
+           fills. Returns false if the piece does not fit. Either way
+           the caller backs it out with undo(), or with rollbackTo() of
+           a mark() made before play().
+        */
+        public boolean play() {
+            int result = board.place(current, x, y);
+            if (result > Board.PLACE_ROW_FILLED)
+                return false;
+            if (result == Board.PLACE_ROW_FILLED)
+                board.clearRows();
+            return true;
+        }
+
+
+        /**
+           Returns the piece rotation of the current play.
+        */
+        public Piece getPiece() {
+            return current;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        /**
+           Returns the table index of the current play.
+        */
+        public int getIndex() {
+            return index;
+        }
+    }
+}
@@ -1,4 +1,3 @@
-import java.awt.*;
 import java.util.*;
 
 
@@ -17,13 +16,56 @@ import java.util.*;
 */
 public class TetrisBoard implements Board {
     private static final boolean DEBUG = true;
-    private boolean[][] grid, backupGrid;
-    private int maxHeight = -1, backupMaxHeight = -1;
-    private int[] rowWidths, backupRowWidths;
-    private int[] columnHeights, backupColumnHeights;
+    private boolean[][] grid;
+    private int maxHeight = 0;
+    private int[] rowWidths;
+    private int[] columnHeights;
+    // The rows that are currently full, in no particular order.
+    // place() adds to this as rows fill, so clearRows() never has
+    // to search for them.
+    private int[] fullRows;
+    private int fullCount = 0;
     private int width, height;
+    private int[] rowScratch;	// row masks read by copyFrom()
+
+    // Zobrist hashing (see Zobrist): the content key of each row and
+    // the running hash of the whole board, kept up to date by every
+    // change to the grid.
+    private long[] columnKeys, rowKeys;
+    private long[] rowContent;
+    private long fullContent;
+    private long hash = 0;
+
+    // Optional evaluation features, null unless turned on with
+    // setFeatureTracking().
+    private Features features = null;
     private boolean primed = false;
 
+    // The undo journal. Each change to the grid is appended as a
+    // record that is read back from the end, so the last int of a
+    // record is its opcode:
+    //   x0 y0 h0 ... n top OP_PLACE   -- the n cells set by place(),
+    //                                    each with the height of its
+    //                                    column before it was set
+    //   r0 r1 ... k h0 h1 ... top OP_CLEAR
+    //                                 -- the k rows (ascending) removed
+    //                                    by clearRows() and the column
+    //                                    heights before the clear
+    // where top is the max height before the change.
+    // undo() replays the records back to undoMark, so it costs time
+    // proportional to what actually changed. The journal is only
+    // discarded once no mark() checkpoint needs it; a checkpoint is
+    // the journal size at the time it was made, kept on a stack whose
+    // index is the mark() token.
+    private static final int OP_PLACE = 1;
+    private static final int OP_CLEAR = 2;
+    private int[] log = new int[64];
+    private int logSize = 0;
+    private int undoMark = 0;
+    private int[] marks = new int[8];
+    private int markCount = 0;
+    private int primeDepth = 0;	// markCount when place() primed undo
+
 
     /**
        Creates an empty board of the given width and height
@@ -33,15 +75,14 @@ public class TetrisBoard implements Board {
         this.width = width;
         this.height = height;
         grid = new boolean[width][height];
-        backupGrid = new boolean[width][height];
         rowWidths = new int[height];
-        Arrays.fill(rowWidths, -1);
-        backupRowWidths = new int[height];
-        Arrays.fill(backupRowWidths, -1);
         columnHeights = new int[width];
-        Arrays.fill(columnHeights, -1);
-        backupColumnHeights = new int[width];
-        Arrays.fill(backupColumnHeights, -1);
+        fullRows = new int[height];
+        columnKeys = Zobrist.columnKeys(width);
+        rowKeys = Zobrist.rowKeys(height);
+        rowContent = new long[height];
+        for (int x = 0; x < width; x++)
+            fullContent ^= columnKeys[x];
     }
 
 
@@ -66,15 +107,7 @@ public class TetrisBoard implements Board {
        For an empty board this is 0.
     */
     public int getMaxHeight() {
-        if (maxHeight != -1)
-            return maxHeight;
-        int mh = 0;
-        for (int x = 0; x < width; x++) {
-            int ch = getColumnHeight(x);
-            if (mh < ch)
-                mh = ch;
-        }
-        return maxHeight = mh;
+        return maxHeight;
     }
 
 
@@ -84,28 +117,89 @@ public class TetrisBoard implements Board {
     */
     public void sanityCheck() {
         if (DEBUG) {
-            // consistency check the board state
+            // the cached heights and widths must match the grid
+            int mh = 0;
+            for (int x = 0; x < width; x++) {
+                int h = 0;
+                for (int y = height - 1; y >= 0; y--) {
+                    if (grid[x][y]) {
+                        h = y + 1;
+                        break;
+                    }
+                }
+                if (h != columnHeights[x])
+                    throw new RuntimeException("Bad column height at x=" + x);
+                if (mh < h)
+                    mh = h;
+            }
+            if (mh != maxHeight)
+                throw new RuntimeException("Bad max height");
+            for (int y = 0; y < height; y++) {
+                int w = 0;
+                for (int x = 0; x < width; x++)
+                    if (grid[x][y])
+                        w++;
+                if (w != rowWidths[y])
+                    throw new RuntimeException("Bad row width at y=" + y);
+            }
+
+            // the running hash must match the grid
+            long h = 0;
+            for (int y = 0; y < height; y++) {
+                long content = 0;
+                for (int x = 0; x < width; x++)
+                    if (grid[x][y])
+                        content ^= columnKeys[x];
+                if (content != rowContent[y])
+                    throw new RuntimeException("Bad row hash at y=" + y);
+                h ^= Zobrist.term(content, rowKeys[y]);
+            }
+            if (h != hash)
+                throw new RuntimeException("Bad hash");
+
+            // the tracked features must match ones computed from scratch
+            if (features != null) {
+                TetrisBoard scratch = new TetrisBoard(width, height);
+                scratch.setFeatureTracking(true);
+                scratch.copyFrom(this);
+                BoardFeatures f = scratch.getFeatures();
+                if (features.getHoles() != f.getHoles())
+                    throw new RuntimeException("Bad holes");
+                if (features.getAggregateHeight() != f.getAggregateHeight())
+                    throw new RuntimeException("Bad aggregate height");
+                if (features.getBumpiness() != f.getBumpiness())
+                    throw new RuntimeException("Bad bumpiness");
+                if (features.getWellSum() != f.getWellSum())
+                    throw new RuntimeException("Bad well sum");
+                if (features.getRowTransitions() != f.getRowTransitions())
+                    throw new RuntimeException("Bad row transitions");
+                if (features.getColumnTransitions() != f.getColumnTransitions())
+                    throw new RuntimeException("Bad column transitions");
+            }
         }
     }
 
     /**
-       Given a piece and an x, returns the y
-       value where the piece would come to rest
-       if it were dropped straight down at that x.
-
-       <p>
-       Implementation: use the skirt and the col heights
-       to compute this fast -- O(skirt length).
+       Fills out[x] with dropHeight(piece, x) for every x where the
+       piece fits across the board, and returns how many that is.
+       One pass over the skirt, reading the column heights directly.
     */
-    public int dropHeight(Piece piece, int x) {
+    public int dropHeights(Piece piece, int[] out) {
         int[] skirt = piece.getSkirt();
-        int max = 0;
-        for (int ix = 0; ix < skirt.length; ix++) {
-            int local = getColumnHeight(x + ix) - skirt[ix];
-            if (max < local)
-                max = local;
+        int n = width - skirt.length + 1;
+        if (n <= 0)
+            return 0;
+        for (int x = 0; x < n; x++)
+            out[x] = Math.max(0, columnHeights[x] - skirt[0]);
+        for (int ix = 1; ix < skirt.length; ix++) {
+            int s = skirt[ix];
+            for (int x = 0; x < n; x++) {
+                int local = columnHeights[x + ix] - s;
+                if (out[x] < local)
+                    out[x] = local;
+            }
         }
-        return max;
+        return n;
     }
 
 
@@ -115,12 +209,7 @@ public class TetrisBoard implements Board {
        The height is 0 if the column contains no blocks.
     */
     public int getColumnHeight(int x) {
-        if (columnHeights[x] != -1)
-            return columnHeights[x];
-        for (int y = height - 1; y >= 0; y--)
-            if (getGrid(x, y))
-                return columnHeights[x] = y + 1;
-        return columnHeights[x] = 0;
+        return columnHeights[x];
     }
 
 
@@ -129,13 +218,7 @@ public class TetrisBoard implements Board {
        the given row.
     */
     public int getRowWidth(int y) {
-        if (rowWidths[y] != -1)
-            return rowWidths[y];
-        int a = 0;
-        for (int x = 0; x < width; x++)
-            if (getGrid(x, y))
-                a++;
-        return rowWidths[y] = a;
+        return rowWidths[y];
     }
 
 
@@ -151,6 +234,70 @@ public class TetrisBoard implements Board {
     }
 
 
+    public void copyColumnHeights(int[] out) {
+        System.arraycopy(columnHeights, 0, out, 0, width);
+    }
+
+
+    public int copyRowWidths(int[] out) {
+        System.arraycopy(rowWidths, 0, out, 0, maxHeight);
+        return maxHeight;
+    }
+
+
+    /**
+       Copies the rows below the max height as bitmasks. The grid is
+       stored by column, so this walks each column up to its height.
+    */
+    public int copyRowMasks(int[] out) {
+        if (width > 32)
+            throw new RuntimeException("copyRowMasks needs a board at most 32 wide");
+        Arrays.fill(out, 0, maxHeight, 0);
+        for (int x = 0; x < width; x++) {
+            final boolean[] column = grid[x];
+            final int bit = 1 << x;
+            for (int y = columnHeights[x] - 1; y >= 0; y--)
+                if (column[y])
+                    out[y] |= bit;
+        }
+        return maxHeight;
+    }
+
+
+    /**
+       Turns the incremental feature tracker on or off. While on,
+       getFeatures() returns a view whose values are kept up to date by
+       place(), clearRows(), undo() and rollbackTo() at a small cost per
+       changed cell. Turning it on computes the features from scratch.
+    */
+    public void setFeatureTracking(boolean on) {
+        if (!on) {
+            features = null;
+        } else if (features == null) {
+            features = new Features();
+            features.rebuild();
+        }
+    }
+
+
+    /**
+       Returns the tracked evaluation features, or null if feature
+       tracking is off.
+    */
+    public BoardFeatures getFeatures() {
+        return features;
+    }
+
+
+    /**
+       Returns a 64-bit Zobrist hash of the filled blocks.
+       Maintained incrementally, so this is O(1).
+    */
+    public long getHash() {
+        return hash;
+    }
+
+
     public static final int PLACE_OK = 0;
     public static final int PLACE_ROW_FILLED = 1;
     public static final int PLACE_OUT_BOUNDS = 2;
@@ -172,31 +319,52 @@ public class TetrisBoard implements Board {
     */
     public int place(Piece piece, int x, int y) {
         prime();
-        maxHeight = -1;
-        for (Point p : piece.getBody()) {
-            int px = p.x + x;
-            int py = p.y + y;
-            // ^ I have to make the old values "stale"
-            if (getGrid(px, py)) {
-                if (px < 0 || py < 0 || px >= width || py >= height) {
-                    //System.out.println("Placement out of bounds.");
-                    return PLACE_OUT_BOUNDS;
-                } else {
-                    //System.out.println("Placement bad.");
-                    return PLACE_BAD;
-                }
-            } else {
-                rowWidths[py] = -1;
-                columnHeights[px] = -1;
-                grid[px][py] = true;
+        final int[] bodyX = piece.getBodyX();
+        final int[] bodyY = piece.getBodyY();
+        for (int i = 0; i < bodyX.length; i++) {
+            int px = bodyX[i] + x;
+            int py = bodyY[i] + y;
+            if (px < 0 || py < 0 || px >= width || py >= height)
+                return PLACE_OUT_BOUNDS;
+        }
+
+        ensureLog(3 * bodyX.length + 3);
+        int top = maxHeight;
+        int filled = fullCount;
+        int n = 0;
+        int result = PLACE_OK;
+        for (int i = 0; i < bodyX.length; i++) {
+            int px = bodyX[i] + x;
+            int py = bodyY[i] + y;
+            if (grid[px][py]) {
+                result = PLACE_BAD;
+                break;
             }
+            grid[px][py] = true;
+            setRowContent(py, rowContent[py] ^ columnKeys[px]);
+            if (++rowWidths[py] == width)
+                fullRows[fullCount++] = py;
+            int h = columnHeights[px];
+            log[logSize++] = px;
+            log[logSize++] = py;
+            log[logSize++] = h;
+            if (h <= py) {
+                columnHeights[px] = py + 1;
+                if (maxHeight <= py)
+                    maxHeight = py + 1;
+            }
+            if (features != null)
+                features.cellSet(px, py, h);
+            n++;
         }
-        
-        for (int i = 0; i < height; i++)
-            if (getRowWidth(i) == width)
-                return PLACE_ROW_FILLED;
-        
-        return PLACE_OK;
+        log[logSize++] = n;
+        log[logSize++] = top;
+        log[logSize++] = OP_PLACE;
+        if (result == PLACE_BAD)
+            return PLACE_BAD;
+
+        // only a row this piece touched can have just filled
+        return (fullCount > filled) ? PLACE_ROW_FILLED : PLACE_OK;
     }
 
     /**
@@ -207,22 +375,79 @@ public class TetrisBoard implements Board {
        Ideally, you want to copy each row down
        to its correct location in one pass.
        Note that more than one row may be filled.
+       The full rows are already known from place(), so only the
+       rows from the lowest full row up to the old max height are
+       touched, and the cleared row numbers are journaled so undo()
+       can put them back.
     */
     public boolean clearRows() {
-        Arrays.fill(rowWidths, -1); //todo: more efficient way for these two? VV
-        Arrays.fill(columnHeights, -1);
-        
-        int offset = 0;
-        for (int y = 0; y < height; y++) {
-            if (getRowWidth(y) == width) {
-                offset++;
+        if (fullCount == 0)
+            return false;
+
+        int top = maxHeight;
+        int offset = fullCount;
+        ensureLog(offset);
+        int rows = logSize;
+        // insertion sort the (at most a few) full rows into the journal
+        for (int i = 0; i < offset; i++) {
+            int r = fullRows[i];
+            int j = logSize++;
+            while (j > rows && log[j - 1] > r) {
+                log[j] = log[j - 1];
+                j--;
+            }
+            log[j] = r;
+        }
+        fullCount = 0;
+        if (features != null)
+            features.columnTransitions += features.clearDelta(rows, offset);
+
+        int k = 0;
+        for (int y = log[rows]; y < top; y++) {
+            if (k < offset && log[rows + k] == y) {
+                k++;
             } else {
                 for (int x = 0; x < width; x++)
-                    grid[x][y - offset] = grid[x][y];
+                    grid[x][y - k] = grid[x][y];
+                rowWidths[y - k] = rowWidths[y];
+                setRowContent(y - k, rowContent[y]);
+                if (features != null)
+                    features.rowTransitions[y - k] = features.rowTransitions[y];
             }
         }
-        
-        return offset > 0;
+
+        for (int x = 0; x < width; x++)
+            Arrays.fill(grid[x], top - offset, top, false);
+        Arrays.fill(rowWidths, top - offset, top, 0);
+        for (int y = top - offset; y < top; y++)
+            setRowContent(y, 0);
+        if (features != null)
+            Arrays.fill(features.rowTransitions, top - offset, top, 2);
+
+        ensureLog(width + 3);
+        log[logSize++] = offset;
+        // every cleared row was below each column's top block, so a
+        // column drops by exactly offset unless its top block was
+        // cleared too; only then is the column rescanned
+        maxHeight = 0;
+        for (int x = 0; x < width; x++) {
+            int h = columnHeights[x];
+            log[logSize++] = h;
+            h -= offset;
+            while (h > 0 && !grid[x][h - 1])
+                h--;
+            // the empty blocks the column dropped past were holes
+            if (features != null)
+                features.holes -= columnHeights[x] - offset - h;
+            columnHeights[x] = h;
+            if (maxHeight < h)
+                maxHeight = h;
+        }
+        log[logSize++] = top;
+        log[logSize++] = OP_CLEAR;
+        if (features != null)
+            features.surfaceChanged();
+        return true;
     }
 
 
@@ -235,18 +460,13 @@ public class TetrisBoard implements Board {
        See the overview docs.
     */
     public void undo() {
-        if (!primed) {
-            //System.out.println("Not primed in undo!");
+        if (!primed)
             return;
-        } else {
-            //System.out.println("Prime undone!");
-        }
         primed = false;
-        for (int x = 0; x < width; x++)
-            System.arraycopy(backupGrid[x], 0, grid[x], 0, height);
-        System.arraycopy(backupRowWidths, 0, rowWidths, 0, height);
-        System.arraycopy(backupColumnHeights, 0, columnHeights, 0, width);
-        maxHeight = backupMaxHeight;
+        while (logSize > undoMark)
+            undoRecord();
+        if (markCount > primeDepth)
+            markCount = primeDepth;
     }
 
 
@@ -255,21 +475,475 @@ public class TetrisBoard implements Board {
        See the overview docs.
     */
     public void commit() {
-        if (!primed) {
-            //System.out.println("Not primed in commit!");
+        primed = false;
+        logSize = 0;
+        markCount = 0;
+    }
+
+
+    /**
+       Records a checkpoint of the current board state and returns a
+       token for it. Costs O(1) -- the token is the checkpoint's place
+       on the mark stack, which holds the journal position.
+    */
+    public int mark() {
+        if (markCount == marks.length)
+            marks = Arrays.copyOf(marks, 2 * marks.length);
+        marks[markCount] = logSize;
+        return markCount++;
+    }
+
+
+    /**
+       Reverts the board to the state it had when mark() returned
+       the given token, replaying the journal back to that point.
+    */
+    public void rollbackTo(int mark) {
+        final int position = marks[mark];
+        while (logSize > position)
+            undoRecord();
+        markCount = mark;
+        if (primeDepth > mark)
+            primed = false;
+    }
+
+    /**
+       Makes this board a copy of the current contents of the other
+       board, which must be the same size, and puts it in the committed
+       state. Reuses this board's arrays, so a search can keep a scratch
+       board and refill it cheaply. Feature tracking stays as it was.
+    */
+    public void copyFrom(Board other) {
+        if (other.getWidth() != width || other.getHeight() != height)
+            throw new RuntimeException("copyFrom needs a board of the same size");
+        if (!(other instanceof TetrisBoard)) {
+            clear();
+            final int mh = other.getMaxHeight();
+            if (width <= 32) {
+                if (rowScratch == null)
+                    rowScratch = new int[height];
+                other.copyRowMasks(rowScratch);
+                for (int y = 0; y < mh; y++)
+                    fillRow(y, rowScratch[y]);
+                return;
+            }
+            for (int y = 0; y < mh; y++)
+                for (int x = 0; x < width; x++)
+                    if (other.getGrid(x, y))
+                        fill(x, y);
             return;
-        } else {
-            //System.out.println("Prime committed.");
         }
-        primed = false;
+
+        TetrisBoard board = (TetrisBoard)other;
+        commit();
+        final int rows = Math.max(maxHeight, board.maxHeight);
+        for (int x = 0; x < width; x++) {
+            Arrays.fill(grid[x], 0, columnHeights[x], false);
+            System.arraycopy(board.grid[x], 0, grid[x], 0, board.columnHeights[x]);
+        }
+        System.arraycopy(board.rowWidths, 0, rowWidths, 0, rows);
+        System.arraycopy(board.rowContent, 0, rowContent, 0, rows);
+        System.arraycopy(board.columnHeights, 0, columnHeights, 0, width);
+        System.arraycopy(board.fullRows, 0, fullRows, 0, board.fullCount);
+        fullCount = board.fullCount;
+        maxHeight = board.maxHeight;
+        hash = board.hash;
+        if (features != null)
+            features.rebuild();
+    }
+
+
+    /**
+       The new board tracks features if this one does.
+    */
+    public Board newBoard() {
+        TetrisBoard board = new TetrisBoard(width, height);
+        board.setFeatureTracking(features != null);
+        return board;
+    }
+
+
+    /**
+       Returns the board in the compact BoardCodec format.
+    */
+    public byte[] toBytes() {
+        return BoardCodec.toBytes(this);
     }
-    
+
+
+    /**
+       Returns a new board decoded from the BoardCodec format.
+    */
+    public static TetrisBoard fromBytes(byte[] bytes) {
+        return BoardCodec.fromBytes(bytes);
+    }
+
+
+    /**
+       Empties the board and puts it in the committed state.
+       Used by BoardCodec to load a board in place.
+    */
+    void clear() {
+        commit();
+        for (int x = 0; x < width; x++)
+            Arrays.fill(grid[x], 0, columnHeights[x], false);
+        Arrays.fill(rowWidths, 0, maxHeight, 0);
+        Arrays.fill(rowContent, 0, maxHeight, 0);
+        Arrays.fill(columnHeights, 0);
+        maxHeight = 0;
+        fullCount = 0;
+        hash = 0;
+        if (features != null)
+            features.rebuild();
+    }
+
+
+    /**
+       Fills in the given block directly, outside of place() and the
+       undo journal. Used by BoardCodec to load a board.
+    */
+    void fill(int x, int y) {
+        if (grid[x][y])
+            return;
+        grid[x][y] = true;
+        setRowContent(y, rowContent[y] ^ columnKeys[x]);
+        if (++rowWidths[y] == width)
+            fullRows[fullCount++] = y;
+        int h = columnHeights[x];
+        if (h <= y) {
+            columnHeights[x] = y + 1;
+            if (maxHeight <= y)
+                maxHeight = y + 1;
+        }
+        if (features != null)
+            features.cellSet(x, y, h);
+    }
+
+    /**
+       Fills in the blocks of row y given as a bitmask (bit x for
+       block x), as fill() would one at a time. Only for boards at
+       most 32 wide.
+    */
+    void fillRow(int y, int mask) {
+        if (features != null || rowWidths[y] != 0) {
+            for (int m = mask; m != 0; m &= m - 1)
+                fill(Integer.numberOfTrailingZeros(m), y);
+            return;
+        }
+        long content = 0;
+        for (int m = mask; m != 0; m &= m - 1) {
+            int x = Integer.numberOfTrailingZeros(m);
+            grid[x][y] = true;
+            content ^= columnKeys[x];
+            if (columnHeights[x] <= y)
+                columnHeights[x] = y + 1;
+        }
+        setRowContent(y, content);
+        rowWidths[y] = Integer.bitCount(mask);
+        if (rowWidths[y] == width)
+            fullRows[fullCount++] = y;
+        if (mask != 0 && maxHeight <= y)
+            maxHeight = y + 1;
+    }
+
     private void prime() {
         primed = true;
-        for (int x = 0; x < width; x++)
-            System.arraycopy(grid[x], 0, backupGrid[x], 0, height);
-        System.arraycopy(rowWidths, 0, backupRowWidths, 0, height);
-        System.arraycopy(columnHeights, 0, backupColumnHeights, 0, width);
-        backupMaxHeight = maxHeight;
+        primeDepth = markCount;
+        if (markCount == 0)
+            logSize = 0;
+        undoMark = logSize;
+    }
+
+    /**
+       Reverts the last record in the journal and removes it.
+    */
+    private void undoRecord() {
+        int op = log[--logSize];
+        int top = log[--logSize];
+        if (op == OP_PLACE) {
+            int n = log[--logSize];
+            for (int i = 0; i < n; i++) {
+                int h = log[--logSize];
+                int py = log[--logSize];
+                int px = log[--logSize];
+                grid[px][py] = false;
+                setRowContent(py, rowContent[py] ^ columnKeys[px]);
+                if (rowWidths[py]-- == width)
+                    removeFullRow(py);
+                int oldH = columnHeights[px];
+                columnHeights[px] = h;
+                if (features != null)
+                    features.cellUnset(px, py, oldH);
+            }
+        } else {
+            logSize -= width;
+            int k = log[logSize - 1];
+            if (features != null) {
+                for (int x = 0; x < width; x++)
+                    features.holes += log[logSize + x] - k - columnHeights[x];
+            }
+            System.arraycopy(log, logSize, columnHeights, 0, width);
+            logSize--;
+            int rows = logSize - k;
+            // the rows that were cleared are exactly the full ones
+            System.arraycopy(log, rows, fullRows, 0, k);
+            fullCount = k;
+            // walk down from the top, re-inserting each cleared
+            // (full) row and moving the rest back up
+            int j = k - 1;
+            for (int y = top - 1; y >= log[rows]; y--) {
+                if (j >= 0 && log[rows + j] == y) {
+                    for (int x = 0; x < width; x++)
+                        grid[x][y] = true;
+                    rowWidths[y] = width;
+                    setRowContent(y, fullContent);
+                    if (features != null)
+                        features.rowTransitions[y] = 0;
+                    j--;
+                } else {
+                    int src = y - (j + 1);
+                    for (int x = 0; x < width; x++)
+                        grid[x][y] = grid[x][src];
+                    rowWidths[y] = rowWidths[src];
+                    setRowContent(y, rowContent[src]);
+                    if (features != null)
+                        features.rowTransitions[y] = features.rowTransitions[src];
+                }
+            }
+            if (features != null) {
+                features.columnTransitions -= features.clearDelta(rows, k);
+                features.surfaceChanged();
+            }
+            logSize = rows;
+        }
+        maxHeight = top;
+    }
+
+    // Changes the content key of a row, updating the board hash.
+    private void setRowContent(int y, long content) {
+        hash ^= Zobrist.term(rowContent[y], rowKeys[y]) ^ Zobrist.term(content, rowKeys[y]);
+        rowContent[y] = content;
+    }
+
+    private void removeFullRow(int y) {
+        for (int i = fullCount - 1; i >= 0; i--) {
+            if (fullRows[i] == y) {
+                fullRows[i] = fullRows[--fullCount];
+                return;
+            }
+        }
+    }
+
+    private void ensureLog(int n) {
+        if (logSize + n > log.length)
+            log = Arrays.copyOf(log, Math.max(2 * log.length, logSize + n));
+    }
+
+
+    /**
+       The incrementally maintained evaluation features. Each change
+       to a cell adjusts the totals from its immediate neighbours, and a
+       change to a column height adjusts the surface terms around that
+       column, so keeping them costs O(1) per changed cell.
+    */
+    private final class Features implements BoardFeatures {
+        int holes;
+        int aggregateHeight;
+        int bumpiness;
+        int wellSum;
+        int rowTransitionSum;	// over the non-empty rows only
+        int columnTransitions;
+        int[] rowTransitions = new int[height];	// per row, walls filled
+
+        public int getHoles() {
+            return holes;
+        }
+
+        public int getAggregateHeight() {
+            return aggregateHeight;
+        }
+
+        public int getBumpiness() {
+            return bumpiness;
+        }
+
+        public int getWellDepth(int x) {
+            int left = (x == 0) ? Integer.MAX_VALUE : columnHeights[x - 1];
+            int right = (x == width - 1) ? Integer.MAX_VALUE : columnHeights[x + 1];
+            int depth = Math.min(left, right) - columnHeights[x];
+            return (depth > 0 && depth < Integer.MAX_VALUE - height) ? depth : 0;
+        }
+
+        public int getWellSum() {
+            return wellSum;
+        }
+
+        public int getRowTransitions() {
+            return rowTransitionSum;
+        }
+
+        public int getColumnTransitions() {
+            return columnTransitions;
+        }
+
+        /**
+           Computes every feature from the grid.
+        */
+        void rebuild() {
+            holes = 0;
+            columnTransitions = 0;
+            for (int x = 0; x < width; x++) {
+                boolean below = true;	// the floor
+                for (int y = 0; y < height; y++) {
+                    if (grid[x][y] != below)
+                        columnTransitions++;
+                    below = grid[x][y];
+                    if (!grid[x][y] && y < columnHeights[x])
+                        holes++;
+                }
+            }
+            rowTransitionSum = 0;
+            for (int y = 0; y < height; y++) {
+                int t = 0;
+                boolean left = true;	// the wall
+                for (int x = 0; x < width; x++) {
+                    if (grid[x][y] != left)
+                        t++;
+                    left = grid[x][y];
+                }
+                if (!left)
+                    t++;
+                rowTransitions[y] = t;
+                if (rowWidths[y] > 0)
+                    rowTransitionSum += t;
+            }
+            surfaceChanged();
+        }
+
+        /**
+           Recomputes the terms that depend only on the column heights.
+        */
+        void surfaceChanged() {
+            aggregateHeight = 0;
+            bumpiness = 0;
+            wellSum = 0;
+            for (int x = 0; x < width; x++) {
+                aggregateHeight += columnHeights[x];
+                if (x > 0)
+                    bumpiness += Math.abs(columnHeights[x] - columnHeights[x - 1]);
+                wellSum += getWellDepth(x);
+            }
+        }
+
+        /**
+           Called after place() fills (x, y); oldHeight is the column
+           height before.
+        */
+        void cellSet(int x, int y, int oldHeight) {
+            flipped(x, y, rowWidths[y] - 1);
+            holes += (y < oldHeight) ? -1 : y - oldHeight;
+            heightChanged(x, oldHeight);
+        }
+
+        /**
+           Called after undo empties (x, y) again and restores its
+           column height; oldHeight is the column height before.
+        */
+        void cellUnset(int x, int y, int oldHeight) {
+            flipped(x, y, rowWidths[y] + 1);
+            int h = columnHeights[x];
+            holes -= (y < h) ? -1 : y - h;
+            heightChanged(x, oldHeight);
+        }
+
+        // Adjusts the transition counts after (x, y) changed state.
+        private void flipped(int x, int y, int oldRowWidth) {
+            boolean v = grid[x][y];
+            boolean left = (x == 0) || grid[x - 1][y];
+            boolean right = (x == width - 1) || grid[x + 1][y];
+            // each neighbour pair that differed now matches, and v.v.
+            int delta = ((left != v) ? 1 : -1) + ((right != v) ? 1 : -1);
+            if (oldRowWidth > 0)
+                rowTransitionSum -= rowTransitions[y];
+            rowTransitions[y] += delta;
+            if (rowWidths[y] > 0)
+                rowTransitionSum += rowTransitions[y];
+
+            boolean below = (y == 0) || grid[x][y - 1];
+            columnTransitions += (below != v) ? 1 : -1;
+            if (y + 1 < height)
+                columnTransitions += (grid[x][y + 1] != v) ? 1 : -1;
+        }
+
+        // Adjusts the surface terms after column x changed height.
+        private void heightChanged(int x, int oldHeight) {
+            int h = columnHeights[x];
+            if (h == oldHeight)
+                return;
+            columnHeights[x] = oldHeight;
+            int oldBumps = localBumpiness(x);
+            int oldWells = localWells(x);
+            columnHeights[x] = h;
+            aggregateHeight += h - oldHeight;
+            bumpiness += localBumpiness(x) - oldBumps;
+            wellSum += localWells(x) - oldWells;
+        }
+
+        private int localBumpiness(int x) {
+            int b = 0;
+            if (x > 0)
+                b += Math.abs(columnHeights[x] - columnHeights[x - 1]);
+            if (x < width - 1)
+                b += Math.abs(columnHeights[x + 1] - columnHeights[x]);
+            return b;
+        }
+
+        private int localWells(int x) {
+            int w = getWellDepth(x);
+            if (x > 0)
+                w += getWellDepth(x - 1);
+            if (x < width - 1)
+                w += getWellDepth(x + 1);
+            return w;
+        }
+
+        /**
+           Returns how the column transitions change when the k full rows
+           listed (ascending) at log[rows] are removed from the current
+           grid and k empty rows are added at the top. Only the pairs
+           around each run of cleared rows change.
+        */
+        int clearDelta(int rows, int k) {
+            int delta = 0;
+            for (int x = 0; x < width; x++) {
+                boolean last = grid[x][height - 1];
+                int i = 0;
+                while (i < k) {
+                    int a = log[rows + i];
+                    int b = a;
+                    while (i + 1 < k && log[rows + i + 1] == b + 1) {
+                        i++;
+                        b++;
+                    }
+                    i++;
+                    boolean below = (a == 0) || grid[x][a - 1];
+                    if (!below)
+                        delta--;
+                    if (b + 1 < height) {
+                        boolean above = grid[x][b + 1];
+                        if (!above)
+                            delta--;
+                        if (below != above)
+                            delta++;
+                    } else {
+                        last = below;
+                    }
+                }
+                // the new empty rows on top
+                if (last)
+                    delta++;
+            }
+            return delta;
+        }
     }
 }
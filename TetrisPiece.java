@@ -12,11 +12,18 @@ import java.util.*;
    @version	1.0, Mar 1, 2001
 */
 public final class TetrisPiece extends Piece {
-    private static Piece[] pieces;
-    private Point[] points;
+    // the body as parallel coordinate arrays; the Point[] form is
+    // only built if a client asks for it
+    private int[] bodyX, bodyY;
+    private volatile Point[] points;
     //private TetrisPiece next;
     private int width, height;
     private int[] skirt;
+    private int[][] rowMasks;	// rowMasks[x] = the rows shifted left by x
+    private long fingerprint;
+    private boolean exactFingerprint;
+    private PieceSet set;	// the rest are set by PieceSet
+    private int id = -1, type = -1, rotation = -1;
 
     /**
        Defines a new piece given the Points that make up its body.
@@ -27,24 +34,70 @@ public final class TetrisPiece extends Piece {
        wants a piece object, they must use Piece.getPieces().
     */
     public TetrisPiece(Point[] points) {
-        this.points = points;
+        this(xsOf(points), ysOf(points));
+    }
+
+    /**
+       Defines a new piece given the x and y coordinates of the
+       blocks that make up its body, as parallel arrays.
+       Does not set up the rotations.
 
-        for (Point p : points) {
-            if (width <= p.x)
-                width = p.x + 1;
+       The piece keeps the arrays themselves, so callers must hand
+       over arrays nobody else holds. Clients use the Point[]
+       constructor, which makes its own copy.
+    */
+    TetrisPiece(int[] bodyX, int[] bodyY) {
+        this.bodyX = bodyX;
+        this.bodyY = bodyY;
+
+        for (int i = 0; i < bodyX.length; i++) {
+            if (width <= bodyX[i])
+                width = bodyX[i] + 1;
 
-            if (height <= p.y)
-                height = p.y + 1;
+            if (height <= bodyY[i])
+                height = bodyY[i] + 1;
         }
 
         skirt = new int[width];
         Arrays.fill(skirt, Integer.MAX_VALUE);
-        for (Point p : points) {
-            if (skirt[p.x] > p.y)
-                skirt[p.x] = p.y;
+        for (int i = 0; i < bodyX.length; i++) {
+            if (skirt[bodyX[i]] > bodyY[i])
+                skirt[bodyX[i]] = bodyY[i];
+        }
+
+        rowMasks = new int[Math.max(0, 33 - width)][height];
+        for (int i = 0; i < bodyX.length; i++)
+            for (int x = 0; x < rowMasks.length; x++)
+                rowMasks[x][bodyY[i]] |= 1 << (bodyX[i] + x);
+
+        exactFingerprint = (width <= 8 && height <= 8);
+        for (int i = 0; i < bodyX.length; i++) {
+            if (exactFingerprint)
+                fingerprint |= 1L << (8 * bodyY[i] + bodyX[i]);
+            else	// order independent, but may collide
+                fingerprint += mix(((long)bodyX[i] << 32) | bodyY[i]);
         }
     }
 
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        return z ^ (z >>> 33);
+    }
+
+    private static int[] xsOf(Point[] points) {
+        int[] xs = new int[points.length];
+        for (int i = 0; i < xs.length; i++)
+            xs[i] = points[i].x;
+        return xs;
+    }
+
+    private static int[] ysOf(Point[] points) {
+        int[] ys = new int[points.length];
+        for (int i = 0; i < ys.length; i++)
+            ys[i] = points[i].y;
+        return ys;
+    }
+
     /**
        Returns the width of the piece measured in blocks.
     */
@@ -64,7 +117,30 @@ public final class TetrisPiece extends Piece {
        should not modify this array.
     */
     public Point[] getBody() {
-        return points;
+        Point[] body = points;
+        if (body == null) {
+            body = new Point[bodyX.length];
+            for (int i = 0; i < body.length; i++)
+                body[i] = new Point(bodyX[i], bodyY[i]);
+            points = body;
+        }
+        return body;
+    }
+
+    /**
+       Returns the x coordinates of the body blocks. The caller
+       should not modify this array.
+    */
+    public int[] getBodyX() {
+        return bodyX;
+    }
+
+    /**
+       Returns the y coordinates of the body blocks, in the same
+       order as getBodyX(). The caller should not modify this array.
+    */
+    public int[] getBodyY() {
+        return bodyY;
     }
 
     /**
@@ -78,6 +154,15 @@ public final class TetrisPiece extends Piece {
     }
 
 
+    /**
+       Returns the rows of the piece as bitmasks shifted left by x.
+       The caller should not modify this array.
+    */
+    public int[] getRowMasks(int x) {
+        return rowMasks[x];
+    }
+
+
     /**
        Returns a piece that is 90 degrees counter-clockwise
        rotated from the receiver.
@@ -101,19 +186,68 @@ public final class TetrisPiece extends Piece {
        if two rotations are effectively the same.
     */
     public boolean equals(Piece other) {
-        if (other.getBody().length != points.length || other.getWidth() != width || other.getHeight() != height)
+        if (other == this)
+            return true;
+        // pieces of a PieceSet are unique per id
+        if (set != null && other.getPieceSet() == set)
+            return id == other.getId();
+        if (fingerprint != other.getFingerprint())
+            return false;
+        if (exactFingerprint)
+            return true;
+
+        int[] otherX = other.getBodyX();
+        int[] otherY = other.getBodyY();
+        if (otherX.length != bodyX.length || other.getWidth() != width || other.getHeight() != height)
             return false;
 
-        HashSet<Point> pset = new HashSet<>();
-        pset.addAll(Arrays.asList(points));
+        // each block is a bit in a width x height grid
+        BitSet cells = new BitSet(width * height);
+        for (int i = 0; i < bodyX.length; i++)
+            cells.set(bodyY[i] * width + bodyX[i]);
 
-        for (Point p : other.getBody())
-            if (!pset.remove(p))
+        for (int i = 0; i < otherX.length; i++) {
+            int bit = otherY[i] * width + otherX[i];
+            if (!cells.get(bit))
                 return false;
+            cells.clear(bit);
+        }
 
         return true;
     }
 
+    /**
+       Same as equals(Piece) for other pieces, so pieces can be
+       used as hash keys.
+    */
+    public boolean equals(Object other) {
+        return (other instanceof Piece) && equals((Piece)other);
+    }
+
+    public int hashCode() {
+        return (int)(fingerprint ^ (fingerprint >>> 32));
+    }
+
+    public PieceSet getPieceSet() {
+        return set;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
     public void setNext(TetrisPiece next) {
         this.next = next;
     }
@@ -125,33 +259,55 @@ public final class TetrisPiece extends Piece {
        from each piece with the {@link #nextRotation()} message.
        In this way, the client can iterate through all the rotations
        until eventually getting back to the first rotation.
+       Same as PieceSet.standard().getPieces().
     */
     public static Piece[] getPieces() {
-        if (pieces == null) {
-            pieces = new Piece[7];
+        return PieceSet.standard().getPieces();
+    }
 
-            for (int i = 0; i < pieceStrings.length; i++) {
-                String pieceString = pieceStrings[i];
-                Point[] body = parsePoints(pieceString);
-                pieces[i] = createRotations(body);
-            }
-        }
-        return pieces;
+    /**
+       Returns the number of distinct piece ids, i.e. the total
+       number of rotations of all the pieces from getPieces().
+    */
+    public static int getPieceCount() {
+        return PieceSet.standard().getPieceCount();
     }
 
-    private static Piece createRotations(Point[] originalBody) {
-        TetrisPiece initial = new TetrisPiece(originalBody);
+    /**
+       Returns the piece (rotation) with the given id.
+    */
+    public static Piece getPiece(int id) {
+        return PieceSet.standard().getPiece(id);
+    }
+
+    // Called by PieceSet as it numbers the rotations of its pieces.
+    void setIds(PieceSet set, int id, int type, int rotation) {
+        this.set = set;
+        this.id = id;
+        this.type = type;
+        this.rotation = rotation;
+    }
+
+    /**
+       Builds the piece with the given body and all of its rotations,
+       linked through nextRotation(), and returns the first. The
+       first piece keeps the arrays as its body.
+    */
+    static TetrisPiece createRotations(int[] bodyX, int[] bodyY) {
+        TetrisPiece initial = new TetrisPiece(bodyX, bodyY);
         TetrisPiece last = initial;
         TetrisPiece current = initial;
         while (true) {
             int height = current.getHeight();
-            Point[] oldBody = current.getBody();
-            Point[] newBody = new Point[oldBody.length];
-            for (int i = 0; i < newBody.length; i++) {
-                Point oldpoint = oldBody[i];
-                newBody[i] = new Point(-oldpoint.y + height - 1, oldpoint.x);
+            int[] oldX = current.getBodyX();
+            int[] oldY = current.getBodyY();
+            int[] newX = new int[oldX.length];
+            int[] newY = new int[oldY.length];
+            for (int i = 0; i < newX.length; i++) {
+                newX[i] = -oldY[i] + height - 1;
+                newY[i] = oldX[i];
             }
-            current = new TetrisPiece(newBody);
+            current = new TetrisPiece(newX, newY);
             if (current.equals(initial)) {
                 last.setNext(initial);
                 break;
@@ -0,0 +1,34 @@
+/**
+   Searches for a good weight vector, a generation at a time: ask()
+   proposes candidate vectors, the caller plays games with each, and
+   tell() reports how well each did. Used by BrainTuner; implementations
+   such as CrossEntropyOptimizer decide where to look next.
+*/
+public interface WeightOptimizer {
+
+    /**
+       Returns the candidate weight vectors to try next.
+    */
+    public double[][] ask();
+
+
+    /**
+       Reports the fitness of each of the candidates from the last
+       ask(), in the same order -- higher is better.
+    */
+    public void tell(double[][] candidates, double[] fitness);
+
+
+    /**
+       Returns the best vector told so far, or the starting point if
+       nothing has been told yet.
+    */
+    public double[] getBest();
+
+
+    /**
+       Returns the fitness of getBest(), or -infinity if nothing has
+       been told yet.
+    */
+    public double getBestFitness();
+}
@@ -0,0 +1,64 @@
+/**
+   Zobrist hashing for boards. Each column x has a random 64-bit key,
+   and a row's content key is the xor of the keys of its filled
+   columns. The board hash is the xor over all non-empty rows of
+   mix(content ^ rowKey(y)), so an empty board hashes to 0.
+
+   Keeping the content key per row (rather than per cell) lets a board
+   move a whole row to a new y in O(1) when rows are cleared. The keys
+   are fixed, so any two boards with the same blocks filled have the
+   same hash, whatever their implementation.
+*/
+final class Zobrist {
+    private Zobrist() {
+    }
+
+    /**
+       The SplitMix64 finalizer -- a cheap bijective 64-bit mix.
+    */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+       Returns the keys for columns 0 to width-1.
+    */
+    static long[] columnKeys(int width) {
+        long[] keys = new long[width];
+        for (int x = 0; x < width; x++)
+            keys[x] = mix(0x9e3779b97f4a7c15L * (x + 1));
+        return keys;
+    }
+
+    /**
+       Returns the keys for rows 0 to height-1.
+    */
+    static long[] rowKeys(int height) {
+        long[] keys = new long[height];
+        for (int y = 0; y < height; y++)
+            keys[y] = mix(0xc2b2ae3d27d4eb4fL * (y + 1) + 0x165667b19e3779f9L);
+        return keys;
+    }
+
+    /**
+       Returns the contribution of a row with the given content key
+       to the board hash.
+    */
+    static long term(long content, long rowKey) {
+        return (content == 0) ? 0 : mix(content ^ rowKey);
+    }
+
+    /**
+       Returns the content key of a row given as a bitmask.
+    */
+    static long content(int row, long[] columnKeys) {
+        long content = 0;
+        while (row != 0) {
+            content ^= columnKeys[Integer.numberOfTrailingZeros(row)];
+            row &= row - 1;
+        }
+        return content;
+    }
+}